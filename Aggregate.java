@@ -0,0 +1,90 @@
+/**
+ * An aggregate function applied to one metric column in a CovidQuery,
+ * such as the sum of new deaths or the average transit GMR.
+ */
+public class Aggregate {
+
+    /**
+     * The functions an Aggregate can apply. Each is worked out from a running sum,
+     * count, minimum and maximum, so any number of them can share a single pass.
+     */
+    public enum Function {
+        COUNT, SUM, AVG, MIN, MAX
+    }
+
+    private final Function function;
+    private final CovidMetric metric;
+
+    private Aggregate(Function function, CovidMetric metric) {
+        this.function = function;
+        this.metric = metric;
+    }
+
+    /**
+     * @return an aggregate that counts the matching rows.
+     */
+    public static Aggregate count() {
+        return new Aggregate(Function.COUNT, null);
+    }
+
+    /**
+     * @return an aggregate that adds up a metric.
+     */
+    public static Aggregate sum(CovidMetric metric) {
+        return new Aggregate(Function.SUM, metric);
+    }
+
+    /**
+     * @return an aggregate that averages a metric.
+     */
+    public static Aggregate avg(CovidMetric metric) {
+        return new Aggregate(Function.AVG, metric);
+    }
+
+    /**
+     * @return an aggregate that finds the smallest value of a metric.
+     */
+    public static Aggregate min(CovidMetric metric) {
+        return new Aggregate(Function.MIN, metric);
+    }
+
+    /**
+     * @return an aggregate that finds the largest value of a metric.
+     */
+    public static Aggregate max(CovidMetric metric) {
+        return new Aggregate(Function.MAX, metric);
+    }
+
+    /**
+     * @return the function this aggregate applies.
+     */
+    public Function getFunction() {
+        return function;
+    }
+
+    /**
+     * @return the metric this aggregate reads, or null for COUNT.
+     */
+    public CovidMetric getMetric() {
+        return metric;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Aggregate)) {
+            return false;
+        }
+        Aggregate aggregate = (Aggregate) other;
+        return function == aggregate.function && metric == aggregate.metric;
+    }
+
+    @Override
+    public int hashCode() {
+        return function.hashCode() * 31 + (metric == null ? 0 : metric.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return metric == null ? function.toString() : function + "(" + metric + ")";
+    }
+}
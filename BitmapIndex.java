@@ -0,0 +1,210 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Bitmap indexes of a data set's rows: one RowBitmap of the rows of each borough, and for
+ * every metric one RowBitmap of the rows in each band of its values.
+ *
+ * The bands of a metric are chosen when the index is built so that each holds about the
+ * same number of rows. A filter on a range of values is the OR of the bands inside the
+ * range, plus the rows of the one or two bands at its ends that are in the range, which
+ * are the only rows whose values are read. Filters on several metrics and boroughs are
+ * then combined with RowBitmap.and() and or(), a word of 64 rows at a time, so the rows
+ * that do not match are never visited.
+ */
+public class BitmapIndex {
+
+    // The number of bands each metric's values are split into
+    private static final int BAND_COUNT = 16;
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    private final CovidDataset dataset;
+    private final RowBitmap[] boroughs;  // [borough code]
+    private final int[][] bandStarts;    // [metric ordinal][band]: the lowest value that falls in the band
+    private final RowBitmap[][] bands;   // [metric ordinal][band]
+    private final int[][] minimums;      // [metric ordinal][band]: the lowest value of the band's rows
+    private final int[][] maximums;      // [metric ordinal][band]: the highest value of the band's rows
+
+    private BitmapIndex(CovidDataset dataset, RowBitmap[] boroughs, int[][] bandStarts, RowBitmap[][] bands,
+            int[][] minimums, int[][] maximums) {
+        this.dataset = dataset;
+        this.boroughs = boroughs;
+        this.bandStarts = bandStarts;
+        this.bands = bands;
+        this.minimums = minimums;
+        this.maximums = maximums;
+    }
+
+    /**
+     * Build the index for every row of a data set.
+     *
+     * @param dataset the data set to index.
+     * @return the new index.
+     */
+    public static BitmapIndex build(CovidDataset dataset) {
+        int[][] bandStarts = new int[METRIC_COUNT][];
+        RowBitmap[][] bands = new RowBitmap[METRIC_COUNT][];
+        int[][] minimums = new int[METRIC_COUNT][];
+        int[][] maximums = new int[METRIC_COUNT][];
+        for (CovidMetric metric : CovidMetric.values()) {
+            int ordinal = metric.ordinal();
+            bandStarts[ordinal] = bandStarts(dataset.column(metric), dataset.size());
+            bands[ordinal] = new RowBitmap[bandStarts[ordinal].length];
+            Arrays.fill(bands[ordinal], RowBitmap.EMPTY);
+            minimums[ordinal] = new int[bandStarts[ordinal].length];
+            maximums[ordinal] = new int[bandStarts[ordinal].length];
+            Arrays.fill(minimums[ordinal], Integer.MAX_VALUE);
+            Arrays.fill(maximums[ordinal], Integer.MIN_VALUE);
+        }
+        BitmapIndex empty = new BitmapIndex(dataset, new RowBitmap[0], bandStarts, bands, minimums, maximums);
+        return empty.extend(dataset, 0);
+    }
+
+    /**
+     * Create the index of a data set that has had rows appended to the data set this
+     * index was built for. The bands are not chosen again, so the appended rows go into
+     * the existing bands, and only the bitmaps that gain rows are copied.
+     *
+     * @param appended the data set with the appended rows.
+     * @param fromRow the first appended row.
+     * @return the index of the whole new data set.
+     */
+    BitmapIndex extend(CovidDataset appended, int fromRow) {
+        RowBitmap.Builder[] boroughBuilders = new RowBitmap.Builder[appended.getBoroughCount()];
+        RowBitmap.Builder[][] bandBuilders = new RowBitmap.Builder[METRIC_COUNT][];
+        int[][] newMinimums = new int[METRIC_COUNT][];
+        int[][] newMaximums = new int[METRIC_COUNT][];
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            bandBuilders[metric] = new RowBitmap.Builder[bands[metric].length];
+            newMinimums[metric] = minimums[metric].clone();
+            newMaximums[metric] = maximums[metric].clone();
+        }
+
+        short[] boroughColumn = appended.boroughColumn();
+        int[][] columns = new int[METRIC_COUNT][];
+        for (CovidMetric metric : CovidMetric.values()) {
+            columns[metric.ordinal()] = appended.column(metric);
+        }
+        for (int row = fromRow; row < appended.size(); row++) {
+            int code = boroughColumn[row];
+            if (boroughBuilders[code] == null) {
+                boroughBuilders[code] = new RowBitmap.Builder(code < boroughs.length ? boroughs[code] : RowBitmap.EMPTY);
+            }
+            boroughBuilders[code].add(row);
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                int value = columns[metric][row];
+                int band = bandOf(bandStarts[metric], value);
+                if (bandBuilders[metric][band] == null) {
+                    bandBuilders[metric][band] = new RowBitmap.Builder(bands[metric][band]);
+                }
+                bandBuilders[metric][band].add(row);
+                newMinimums[metric][band] = Math.min(newMinimums[metric][band], value);
+                newMaximums[metric][band] = Math.max(newMaximums[metric][band], value);
+            }
+        }
+
+        RowBitmap[] newBoroughs = Arrays.copyOf(boroughs, boroughBuilders.length);
+        for (int code = 0; code < newBoroughs.length; code++) {
+            if (boroughBuilders[code] != null) {
+                newBoroughs[code] = boroughBuilders[code].build();
+            }
+            else if (newBoroughs[code] == null) {
+                newBoroughs[code] = RowBitmap.EMPTY;
+            }
+        }
+        RowBitmap[][] newBands = new RowBitmap[METRIC_COUNT][];
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            newBands[metric] = bands[metric].clone();
+            for (int band = 0; band < newBands[metric].length; band++) {
+                if (bandBuilders[metric][band] != null) {
+                    newBands[metric][band] = bandBuilders[metric][band].build();
+                }
+            }
+        }
+        return new BitmapIndex(appended, newBoroughs, bandStarts, newBands, newMinimums, newMaximums);
+    }
+
+    /**
+     * @return the rows of a borough.
+     */
+    public RowBitmap borough(int boroughCode) {
+        return boroughs[boroughCode];
+    }
+
+    /**
+     * @return the rows of any of several boroughs.
+     */
+    public RowBitmap boroughs(int[] boroughCodes) {
+        ArrayList<RowBitmap> parts = new ArrayList<RowBitmap>(boroughCodes.length);
+        for (int code : boroughCodes) {
+            parts.add(boroughs[code]);
+        }
+        return RowBitmap.union(parts);
+    }
+
+    /**
+     * Find the rows among some candidate rows where a metric is between two values.
+     * Only the values of the candidates in the bands at the ends of the range are read.
+     *
+     * @param metric the metric to test.
+     * @param min the lowest value to include.
+     * @param max the highest value to include.
+     * @param within the candidate rows, such as the rows of a date range.
+     * @return the candidate rows whose value is between min and max, inclusive.
+     */
+    public RowBitmap between(CovidMetric metric, int min, int max, RowBitmap within) {
+        int ordinal = metric.ordinal();
+        int[] column = dataset.column(metric);
+        ArrayList<RowBitmap> parts = new ArrayList<RowBitmap>();
+        for (int band = 0; band < bands[ordinal].length; band++) {
+            int bandMin = minimums[ordinal][band];
+            int bandMax = maximums[ordinal][band];
+            if (bandMin > bandMax || bandMax < min || bandMin > max) {
+                continue;
+            }
+            RowBitmap rows = bands[ordinal][band].and(within);
+            if (bandMin < min || bandMax > max) {
+                rows = rows.filter(row -> column[row] >= min && column[row] <= max);
+            }
+            parts.add(rows);
+        }
+        return RowBitmap.union(parts);
+    }
+
+    /**
+     * @return the lowest value of each band of a column, chosen so that the bands hold
+     * about the same number of rows. The first band starts at the lowest possible value.
+     */
+    private static int[] bandStarts(int[] column, int size) {
+        int[] sorted = Arrays.copyOf(column, size);
+        Arrays.sort(sorted);
+        int[] starts = new int[BAND_COUNT];
+        starts[0] = Integer.MIN_VALUE;
+        int count = 1;
+        for (int band = 1; band < BAND_COUNT && size > 0; band++) {
+            int start = sorted[(int) ((long) band * size / BAND_COUNT)];
+            if (start > starts[count - 1]) {
+                starts[count++] = start;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * @return the band a value falls into: the last band whose start is not above the value.
+     */
+    private static int bandOf(int[] starts, int value) {
+        int low = 0;
+        int high = starts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= value) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low - 1;
+    }
+}
@@ -0,0 +1,141 @@
+import java.util.Arrays;
+
+/**
+ * The totals of a set of metrics for every borough over a date range, worked out
+ * together. Metrics whose cumulative sums have already been built are read from
+ * them; all of the other metrics are read from the weekly and monthly RollupCube
+ * when it has been built, or else added up in a single scan of the rows.
+ */
+public class BoroughAggregation {
+
+    private final CovidDataset dataset;
+    private final CovidMetric[] metrics;
+    private final long[][] totals; // [position in metrics][borough code]
+    private final int[] counts;    // [borough code]
+
+    /**
+     * Add up metrics for every borough over a date range.
+     *
+     * @param dataset the data set to add up.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @param metrics the metrics to add up.
+     */
+    public BoroughAggregation(CovidDataset dataset, int fromDay, int toDay, CovidMetric... metrics) {
+        this.dataset = dataset;
+        this.metrics = metrics.clone();
+        int boroughCount = dataset.getBoroughCount();
+        totals = new long[metrics.length][boroughCount];
+        counts = new int[boroughCount];
+
+        // read every metric that has cumulative sums from them, and the rest from the cube or a scan
+        CumulativeSums[] sums = new CumulativeSums[metrics.length];
+        int[][] scanColumns = new int[metrics.length][];
+        int[] scanPositions = new int[metrics.length];
+        int scanCount = 0;
+        for (int i = 0; i < metrics.length; i++) {
+            sums[i] = dataset.findCumulativeSums(metrics[i]);
+            if (sums[i] == null) {
+                scanColumns[scanCount] = dataset.column(metrics[i]);
+                scanPositions[scanCount] = i;
+                scanCount++;
+            }
+        }
+
+        RollupCube cube = dataset.findRollupCube();
+        if (cube != null && (scanCount > 0 || metrics.length == 0)) {
+            MetricSummary[] summaries = cube.summarizeEach(fromDay, toDay);
+            for (int code = 0; code < boroughCount; code++) {
+                counts[code] = (int) summaries[code].getCount();
+                for (int i = 0; i < scanCount; i++) {
+                    totals[scanPositions[i]][code] = summaries[code].getSum(metrics[scanPositions[i]]);
+                }
+            }
+        }
+        else if (scanCount > 0 || metrics.length == 0) {
+            int[] days = dataset.dayColumn();
+            short[] boroughs = dataset.boroughColumn();
+            int end = dataset.endRow(toDay);
+            for (int row = dataset.startRow(fromDay); row < end; row++) {
+                if (days[row] < fromDay || days[row] > toDay) {
+                    continue;
+                }
+                int code = boroughs[row];
+                counts[code]++;
+                for (int i = 0; i < scanCount; i++) {
+                    totals[scanPositions[i]][code] += scanColumns[i][row];
+                }
+            }
+        }
+        for (int i = 0; i < metrics.length; i++) {
+            if (sums[i] != null) {
+                for (int code = 0; code < boroughCount; code++) {
+                    totals[i][code] = sums[i].sum(code, fromDay, toDay);
+                    counts[code] = sums[i].count(code, fromDay, toDay);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the total of a metric for a borough, or 0 if the borough is not in the data set.
+     * @throws IllegalArgumentException if the metric was not added up.
+     */
+    public long getTotal(String borough, CovidMetric metric) {
+        int code = dataset.findBoroughCode(borough);
+        return code < 0 ? 0 : totals[position(metric)][code];
+    }
+
+    /**
+     * @return the total of a metric for the borough with the given dictionary code.
+     * @throws IllegalArgumentException if the metric was not added up.
+     */
+    public long getTotal(int boroughCode, CovidMetric metric) {
+        return totals[position(metric)][boroughCode];
+    }
+
+    /**
+     * @return the total of a metric over every borough.
+     * @throws IllegalArgumentException if the metric was not added up.
+     */
+    public long getLondonTotal(CovidMetric metric) {
+        long total = 0;
+        for (long boroughTotal : totals[position(metric)]) {
+            total += boroughTotal;
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of rows for the borough with the given dictionary code.
+     */
+    public int getCount(int boroughCode) {
+        return counts[boroughCode];
+    }
+
+    /**
+     * @return the number of rows over every borough.
+     */
+    public int getLondonCount() {
+        return Arrays.stream(counts).sum();
+    }
+
+    /**
+     * @return the data set that was added up, for looking up borough names and codes.
+     */
+    public CovidDataset getDataset() {
+        return dataset;
+    }
+
+    /**
+     * @return the position of a metric in the metrics that were added up.
+     */
+    private int position(CovidMetric metric) {
+        for (int i = 0; i < metrics.length; i++) {
+            if (metrics[i] == metric) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(metric + " was not part of this aggregation");
+    }
+}
@@ -1,4 +1,5 @@
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.scene.Scene;
@@ -12,6 +13,11 @@ import javafx.collections.ObservableList;
 import javafx.scene.layout.*;
 import java.util.*;
 import javafx.scene.control.cell.PropertyValueFactory;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.util.StringConverter;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 
 /**
  * The class responsible for the design on the window displaying covid data for a specific borough
@@ -28,18 +34,30 @@ public class BoroughDataWindow extends Application
     private ComboBox<String> dropDown;
     
     private String borough;
+    private Date startDate;
+    private Date endDate;
     //private BoroughDataLoader boroughDataLoader;
-    private CovidDataLoader covidDataLoader;
     private ArrayList<CovidData> boroughData;
+    private ObservableList<CovidData> observableBoroughData;
+    private StatisticsCalculator statisticsCalculator = new StatisticsCalculator();
+    // the rolling averages of each row, in the order of ROLLING_METRICS then RollingAverages.WINDOWS
+    private Map<CovidData, double[]> rollingAverages = new IdentityHashMap<>();
+    private static final CovidMetric[] ROLLING_METRICS = {CovidMetric.NEW_CASES, CovidMetric.NEW_DEATHS};
+    private CovidDataListener dataListener = dataset -> Platform.runLater(() -> refreshData());
+    // the value filter on the rows, or null for every row
+    private CovidMetric filterMetric;
+    private int filterMin;
+    private int filterMax;
     
     public BoroughDataWindow(String borough, Date startDate, Date endDate) throws java.text.ParseException {
         super();
         dropDown = createDropDown();
         this.borough = borough;
+        this.startDate = startDate;
+        this.endDate = endDate;
         //this.boroughDataLoader = new BoroughDataLoader(borough, startDate, endDate);
         //this.boroughData = boroughDataLoader.load();
-        this.covidDataLoader = new CovidDataLoader();
-        this.boroughData = covidDataLoader.loadBoroughData(borough, startDate, endDate);
+        loadData();
     }
     
     /**
@@ -54,9 +72,78 @@ public class BoroughDataWindow extends Application
         stage.setTitle(borough + " Data"); //change to specific borough name
         stage.setScene(scene);
 
+        //keep the table up to date while the window is open
+        CovidDataRepository.getInstance().addListener(dataListener);
+        stage.setOnHidden(e -> CovidDataRepository.getInstance().removeListener(dataListener));
+
         stage.show();
     }
     
+    /**
+     * Reload the borough's data into the table after the data set or the value filter has changed.
+     */
+    private void refreshData(){
+        loadData();
+        observableBoroughData.setAll(boroughData);
+    }
+    
+    /**
+     * Load the borough's rows in the date range that pass the value filter, and work out
+     * their rolling averages from the same data set. The value filter is answered from the
+     * data set's bitmap index, so only the rows that pass it are read.
+     */
+    private void loadData(){
+        CovidDataset dataset = CovidDataRepository.getInstance().getDataset();
+        LocalDate start = Instant.ofEpochMilli(startDate.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+        LocalDate end = Instant.ofEpochMilli(endDate.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+        CovidQuery query = CovidQuery.from(dataset).boroughs(borough).between(start, end);
+        if(filterMetric != null){
+            query = query.where(filterMetric, filterMin, filterMax);
+        }
+        // the rows are matched once, for both the table and the rolling averages
+        int[] rows = query.matchingRows();
+        boroughData = new ArrayList<CovidData>(rows.length);
+        for(int row : rows){
+            boroughData.add(dataset.getRecord(row));
+        }
+        loadRollingAverages(dataset, rows);
+    }
+    
+    /**
+     * Work out the 7, 14 and 28-day rolling averages of new cases and new deaths for
+     * every row in the table.
+     * 
+     * @param dataset the data set the rows in the table were loaded from.
+     * @param rows the row numbers of the rows in the table, in the same order.
+     */
+    private void loadRollingAverages(CovidDataset dataset, int[] rows){
+        int windowCount = RollingAverages.WINDOWS.length;
+        rollingAverages.clear();
+        for(int m = 0; m < ROLLING_METRICS.length; m++){
+            for(int w = 0; w < windowCount; w++){
+                double[] averages = statisticsCalculator.calcRollingAverages(dataset, rows, ROLLING_METRICS[m], RollingAverages.WINDOWS[w]);
+                for(int row = 0; row < averages.length; row++){
+                    rollingAverages.computeIfAbsent(boroughData.get(row), data -> new double[ROLLING_METRICS.length * windowCount])[m * windowCount + w] = averages[row];
+                }
+            }
+        }
+    }
+    
+    /**
+     * Create a table column showing one of the rolling averages of each row.
+     * 
+     * @return the new column.
+     */
+    private TableColumn<CovidData, Double> createRollingColumn(int metric, int window){
+        TableColumn<CovidData, Double> column = new TableColumn<>(ROLLING_METRICS[metric].getLabel() + " (" + RollingAverages.WINDOWS[window] + "-Day Avg)");
+        int position = metric * RollingAverages.WINDOWS.length + window;
+        column.setCellValueFactory(cell -> {
+            double[] averages = rollingAverages.get(cell.getValue());
+            return new SimpleObjectProperty<Double>(averages == null ? null : Math.round(averages[position] * 100) / 100.0);
+        });
+        return column;
+    }
+    
     /**
      * Create the root of the GUI and add the components
      * 
@@ -64,7 +151,7 @@ public class BoroughDataWindow extends Application
      */
     private BorderPane createRoot(){
         BorderPane root = new BorderPane();
-        root.setTop(dropDown);
+        root.setTop(new HBox(10, dropDown, createFilter()));
         root.setCenter(createStats());
         
         return root;
@@ -84,6 +171,66 @@ public class BoroughDataWindow extends Application
         return dropDown;
     }
     
+    /**
+     * Create the controls for showing only the rows where a metric is between two values,
+     * such as the days with more than 100 new cases. Either value can be left empty.
+     * 
+     * @return an HBox containing the filter controls.
+     */
+    private HBox createFilter(){
+        ComboBox<CovidMetric> metricBox = new ComboBox<>(FXCollections.observableArrayList(CovidMetric.values()));
+        metricBox.setPromptText("Filter by");
+        metricBox.setConverter(new StringConverter<CovidMetric>(){
+            @Override
+            public String toString(CovidMetric metric){
+                return metric == null ? null : metric.getLabel();
+            }
+            
+            @Override
+            public CovidMetric fromString(String label){
+                return null;
+            }
+        });
+        TextField minField = new TextField();
+        minField.setPromptText("Min");
+        minField.setPrefWidth(80);
+        TextField maxField = new TextField();
+        maxField.setPromptText("Max");
+        maxField.setPrefWidth(80);
+        
+        Button filterButton = new Button("Filter");
+        filterButton.setOnAction(e -> {
+            if(metricBox.getValue() == null){
+                return;
+            }
+            try{
+                filterMin = minField.getText().trim().isEmpty() ? Integer.MIN_VALUE : Integer.parseInt(minField.getText().trim());
+                filterMax = maxField.getText().trim().isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(maxField.getText().trim());
+                filterMetric = metricBox.getValue();
+                refreshData();
+            }
+            catch(NumberFormatException ex){
+                Alert alert = new Alert(Alert.AlertType.WARNING);
+                alert.setTitle("Invalid filter");
+                alert.setHeaderText("Data of the wrong format was entered");
+                alert.setContentText("Filter values must be whole numbers");
+                alert.showAndWait();
+            }
+        });
+        
+        Button clearButton = new Button("Clear");
+        clearButton.setOnAction(e -> {
+            filterMetric = null;
+            metricBox.setValue(null);
+            minField.clear();
+            maxField.clear();
+            refreshData();
+        });
+        
+        HBox filter = new HBox(5, metricBox, minField, new Label("to"), maxField, filterButton, clearButton);
+        return filter;
+    }
+    
     /**
      * Create the table containing all the covid statistics for the borough (providing the functionality
      * to sort the statistics), add the statisitcs to it and place it in a VBox.
@@ -123,9 +270,14 @@ public class BoroughDataWindow extends Application
         TableColumn<CovidData, Integer> newDeathsColumn = new TableColumn<>("New Deaths");
         newDeathsColumn.setCellValueFactory(new PropertyValueFactory<CovidData, Integer>("newDeaths"));
         
-        ObservableList<CovidData> observableBoroughData = FXCollections.observableArrayList(boroughData);
+        observableBoroughData = FXCollections.observableArrayList(boroughData);
         tableView.setItems(observableBoroughData);
         tableView.getColumns().addAll(dateColumn, retailRecreationGMRColumn, groceryPharmacyGMRColumn, parksGMRColumn, transitGMRColumn, workplacesGMRColumn, residentialGMRColumn, newCasesColumn, totalCasesColumn, newDeathsColumn);
+        for(int metric = 0; metric < ROLLING_METRICS.length; metric++){
+            for(int window = 0; window < RollingAverages.WINDOWS.length; window++){
+                tableView.getColumns().add(createRollingColumn(metric, window));
+            }
+        }
         
         dropDown.setOnAction(e -> {
             String selectedOption = dropDown.getValue();
@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+/**
+ * A secondary index from each borough to its rows, sorted by date.
+ * Finding a borough's rows in a date range is two binary searches, after which the
+ * matching rows are a contiguous slice of the borough's row list. Rows with the same
+ * date stay in file order.
+ */
+public class BoroughIndex {
+
+    private final int[][] rows; // per borough code, the row numbers sorted by epoch day
+    private final int[][] days; // per borough code, the epoch day of each of those rows
+
+    private BoroughIndex(int[][] rows, int[][] days) {
+        this.rows = rows;
+        this.days = days;
+    }
+
+    /**
+     * Build the index for every row of a data set.
+     *
+     * @param dataset the data set to index.
+     * @return the new index.
+     */
+    public static BoroughIndex build(CovidDataset dataset) {
+        int boroughCount = dataset.getBoroughCount();
+        int[] counts = new int[boroughCount];
+        for (int row = 0; row < dataset.size(); row++) {
+            counts[dataset.getBoroughCode(row)]++;
+        }
+
+        // sort each borough's rows by day, using the row number to keep file order on equal days
+        long[][] keys = new long[boroughCount][];
+        for (int code = 0; code < boroughCount; code++) {
+            keys[code] = new long[counts[code]];
+            counts[code] = 0;
+        }
+        for (int row = 0; row < dataset.size(); row++) {
+            int code = dataset.getBoroughCode(row);
+            keys[code][counts[code]++] = ((long) dataset.getEpochDay(row) << 32) | row;
+        }
+
+        int[][] rows = new int[boroughCount][];
+        int[][] days = new int[boroughCount][];
+        for (int code = 0; code < boroughCount; code++) {
+            Arrays.sort(keys[code]);
+            rows[code] = new int[keys[code].length];
+            days[code] = new int[keys[code].length];
+            for (int i = 0; i < keys[code].length; i++) {
+                rows[code][i] = (int) keys[code][i];
+                days[code][i] = (int) (keys[code][i] >> 32);
+            }
+        }
+        return new BoroughIndex(rows, days);
+    }
+
+    /**
+     * Create the index of a data set that has had rows appended to the data set this
+     * index was built for. Only the boroughs of the appended rows are changed: their new
+     * rows are sorted by date and merged with the existing ones, so each changed borough's
+     * arrays are copied once however many rows it gains.
+     *
+     * @param dataset the data set with the appended rows.
+     * @param fromRow the first appended row.
+     * @return the index of the whole new data set.
+     */
+    BoroughIndex extend(CovidDataset dataset, int fromRow) {
+        int boroughCount = dataset.getBoroughCount();
+        int[] counts = new int[boroughCount];
+        for (int row = fromRow; row < dataset.size(); row++) {
+            counts[dataset.getBoroughCode(row)]++;
+        }
+
+        // sort each borough's new rows by day, as build() does
+        long[][] keys = new long[boroughCount][];
+        for (int code = 0; code < boroughCount; code++) {
+            keys[code] = new long[counts[code]];
+            counts[code] = 0;
+        }
+        for (int row = fromRow; row < dataset.size(); row++) {
+            int code = dataset.getBoroughCode(row);
+            keys[code][counts[code]++] = ((long) dataset.getEpochDay(row) << 32) | row;
+        }
+
+        int[][] newRows = Arrays.copyOf(rows, boroughCount);
+        int[][] newDays = Arrays.copyOf(days, boroughCount);
+        for (int code = 0; code < boroughCount; code++) {
+            int[] oldRows = code < rows.length ? rows[code] : new int[0];
+            int[] oldDays = code < days.length ? days[code] : new int[0];
+            if (keys[code].length == 0) {
+                newRows[code] = oldRows;
+                newDays[code] = oldDays;
+                continue;
+            }
+            Arrays.sort(keys[code]);
+
+            // the existing rows come first on equal days, as they are earlier in the file
+            int length = oldRows.length + keys[code].length;
+            int[] boroughRows = new int[length];
+            int[] boroughDays = new int[length];
+            int i = 0;
+            int j = 0;
+            for (int position = 0; position < length; position++) {
+                if (j == keys[code].length || (i < oldRows.length && oldDays[i] <= (int) (keys[code][j] >> 32))) {
+                    boroughRows[position] = oldRows[i];
+                    boroughDays[position] = oldDays[i++];
+                }
+                else {
+                    boroughRows[position] = (int) keys[code][j];
+                    boroughDays[position] = (int) (keys[code][j++] >> 32);
+                }
+            }
+            newRows[code] = boroughRows;
+            newDays[code] = boroughDays;
+        }
+        return new BoroughIndex(newRows, newDays);
+    }
+
+    /**
+     * @return the rows of a borough, sorted by date. The array must not be modified.
+     */
+    public int[] rows(int boroughCode) {
+        return rows[boroughCode];
+    }
+
+    /**
+     * @return the epoch day of each of the rows returned by rows(). The array must not be modified.
+     */
+    public int[] days(int boroughCode) {
+        return days[boroughCode];
+    }
+
+    /**
+     * @return the position in rows() of the borough's first row on or after the given day.
+     */
+    public int start(int boroughCode, int fromDay) {
+        int[] boroughDays = days[boroughCode];
+        int low = 0;
+        int high = boroughDays.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (boroughDays[middle] < fromDay) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position in rows() just after the borough's last row on or before the given day.
+     */
+    public int end(int boroughCode, int toDay) {
+        int[] boroughDays = days[boroughCode];
+        int low = 0;
+        int high = boroughDays.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (boroughDays[middle] <= toDay) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Ranks the boroughs of a data set by the total, average or number of rows of a metric
+ * over a date range, such as the five boroughs with the most new cases.
+ *
+ * Each borough's value is two reads of the data set's cumulative sums, and only the best
+ * k boroughs are kept, in a heap whose weakest member is replaced whenever a better borough
+ * comes along. Ranking n boroughs therefore takes O(n log k) time whatever the length of
+ * the date range, and stays cheap at ward or local-authority scale with hundreds of areas.
+ */
+public class BoroughRanking {
+
+    /**
+     * A borough and its value in a ranking.
+     */
+    public static final class Entry {
+        private final int code;
+        private final String borough;
+        private final double value;
+
+        private Entry(int code, String borough, double value) {
+            this.code = code;
+            this.borough = borough;
+            this.value = value;
+        }
+
+        /**
+         * @return the name of the borough.
+         */
+        public String getBorough() {
+            return borough;
+        }
+
+        /**
+         * @return the borough's value of the ranked aggregate.
+         */
+        public double getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return borough + "=" + value;
+        }
+    }
+
+    private BoroughRanking() {
+    }
+
+    /**
+     * Find the boroughs with the highest or lowest value of an aggregate over a date range.
+     * Boroughs without any rows in the range are left out. Boroughs with equal values are
+     * ranked in the order they first appear in the data set.
+     *
+     * @param dataset the data set to rank the boroughs of.
+     * @param aggregate the sum, average or count to rank by.
+     * @param highest true to find the highest values, false to find the lowest.
+     * @param limit the largest number of boroughs to return.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return up to limit boroughs, best first.
+     * @throws IllegalArgumentException if the aggregate is a minimum or maximum, which can't be
+     * read from cumulative sums.
+     */
+    public static List<Entry> top(CovidDataset dataset, Aggregate aggregate, boolean highest, int limit,
+            int fromDay, int toDay) {
+        if (aggregate.getFunction() == Aggregate.Function.MIN || aggregate.getFunction() == Aggregate.Function.MAX) {
+            throw new IllegalArgumentException(aggregate.getFunction() + " can't be ranked from cumulative sums");
+        }
+        // any metric's sums count the rows, and those of new cases are built when a data set is published
+        CovidMetric metric = aggregate.getMetric() == null ? CovidMetric.NEW_CASES : aggregate.getMetric();
+        CumulativeSums sums = dataset.getCumulativeSums(metric);
+
+        // order the heap weakest first: the worse value, or for equal values the later borough
+        Comparator<Entry> weakestFirst = (first, second) -> {
+            int order = highest ? Double.compare(first.value, second.value) : Double.compare(second.value, first.value);
+            return order != 0 ? order : Integer.compare(second.code, first.code);
+        };
+        PriorityQueue<Entry> best = new PriorityQueue<Entry>(Math.max(1, limit), weakestFirst);
+        for (int code = 0; code < dataset.getBoroughCount() && limit > 0; code++) {
+            int count = sums.count(code, fromDay, toDay);
+            if (count == 0) {
+                continue;
+            }
+            Entry candidate = new Entry(code, dataset.getBoroughName(code),
+                value(aggregate.getFunction(), count, sums.sum(code, fromDay, toDay)));
+            if (best.size() < limit) {
+                best.add(candidate);
+            }
+            else if (weakestFirst.compare(candidate, best.peek()) > 0) {
+                best.poll();
+                best.add(candidate);
+            }
+        }
+
+        ArrayList<Entry> ranking = new ArrayList<Entry>(best.size());
+        while (!best.isEmpty()) {
+            ranking.add(best.poll());
+        }
+        Collections.reverse(ranking);
+        return ranking;
+    }
+
+    /**
+     * @return the value of a sum, average or count from a borough's total and number of rows.
+     */
+    private static double value(Aggregate.Function function, int count, long sum) {
+        switch (function) {
+            case SUM: return sum;
+            case AVG: return (double) sum / count;
+            default: return count;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+
+/**
+ * Compares the ways the GMR averages can be worked out on a data set scaled up to
+ * national size: the original loop over CovidData getters, the plain column loop and
+ * the Vector API column loop.
+ * Compile vector/*.java as well and run with --add-modules jdk.incubator.vector on both
+ * javac and java to include the Vector API; without it the vector timings are skipped. The first argument
+ * is how many copies of the csv rows to use (100 by default).
+ */
+public class ColumnAggregateBenchmark
+{
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        CovidDataset dataset = scaleUp(new CovidDataLoader().loadDataset(0), copies);
+        ArrayList<CovidData> records = new ArrayList<>(dataset.getRecords());
+        int fromDay = dataset.getFirstDay();
+        int toDay = dataset.getLastDay();
+        ColumnKernels scalar = new ScalarColumnKernels();
+        ColumnKernels vector = ColumnKernels.getInstance() instanceof ScalarColumnKernels ? null
+            : ColumnKernels.getInstance();
+        System.out.printf("%d rows, Vector API %s%n", dataset.size(), vector == null ? "not available" : "available");
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            double loopAverage = averageWithGetters(records);
+            long loopTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double scalarAverage = averageWithKernels(scalar, dataset, fromDay, toDay);
+            long scalarTime = System.nanoTime() - start;
+
+            System.out.printf("Round %2d: getters %8.2f ms, column loop %8.2f ms", round, loopTime / 1e6,
+                scalarTime / 1e6);
+            if (vector != null) {
+                start = System.nanoTime();
+                double vectorAverage = averageWithKernels(vector, dataset, fromDay, toDay);
+                long vectorTime = System.nanoTime() - start;
+                System.out.printf(", vector %8.2f ms (%.1fx faster than getters)", vectorTime / 1e6,
+                    (double) loopTime / vectorTime);
+                if (vectorAverage != loopAverage) {
+                    System.out.print(" - the vector average is different!");
+                }
+            }
+            System.out.println();
+            if (scalarAverage != loopAverage) {
+                System.out.println("The column loop average is different!");
+            }
+        }
+    }
+
+    /**
+     * @return a data set holding the given number of copies of every row.
+     */
+    private static CovidDataset scaleUp(CovidDataset dataset, int copies) {
+        CovidDatasetBuilder builder = new CovidDatasetBuilder(dataset.size() * copies);
+        int[] values = new int[CovidMetric.values().length];
+        for (int copy = 0; copy < copies; copy++) {
+            for (int row = 0; row < dataset.size(); row++) {
+                for (CovidMetric metric : CovidMetric.values()) {
+                    values[metric.ordinal()] = dataset.getValue(metric, row);
+                }
+                builder.addRow(dataset.getEpochDay(row), builder.boroughCode(dataset.getBorough(row)), values);
+            }
+        }
+        return builder.build(0);
+    }
+
+    /**
+     * @return the average of the parks and workplaces GMR averages, the way StatisticsCalculator used to.
+     */
+    private static double averageWithGetters(ArrayList<CovidData> records) {
+        double totalParksGMR = 0;
+        double totalWorkplacesGMR = 0;
+        for (CovidData data : records) {
+            totalParksGMR += data.getParksGMR();
+            totalWorkplacesGMR += data.getWorkplacesGMR();
+        }
+        return (totalParksGMR / records.size() + totalWorkplacesGMR / records.size()) / 2;
+    }
+
+    /**
+     * @return the average of the parks and workplaces GMR averages, reading the columns with the kernels.
+     */
+    private static double averageWithKernels(ColumnKernels kernels, CovidDataset dataset, int fromDay, int toDay) {
+        long[] parks = { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        long[] workplaces = { 0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        kernels.aggregate(dataset.dayColumn(), dataset.column(CovidMetric.PARKS_GMR), 0, dataset.size(), fromDay,
+            toDay, parks);
+        kernels.aggregate(dataset.dayColumn(), dataset.column(CovidMetric.WORKPLACES_GMR), 0, dataset.size(),
+            fromDay, toDay, workplaces);
+        return ((double) parks[1] / parks[0] + (double) workplaces[1] / workplaces[0]) / 2;
+    }
+}
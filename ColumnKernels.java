@@ -0,0 +1,56 @@
+/**
+ * The inner loops that add up a range of one metric column, keeping only the rows whose
+ * day falls in a date range. CovidQuery uses them for scans that have no borough or value
+ * filter and no group-by, where the rows to read are a contiguous range of each column.
+ *
+ * getInstance() returns the Vector API implementation when it has been compiled from the
+ * vector directory and the jdk.incubator.vector module is available, and a plain loop otherwise.
+ */
+public interface ColumnKernels {
+
+    /**
+     * Add up values[from..to) for the rows whose day is between fromDay and toDay inclusive.
+     * The results are added to totals, which holds the count, the sum, the minimum and the
+     * maximum of the rows in that order; a range with no matching rows leaves it unchanged.
+     *
+     * @param days the epoch day column.
+     * @param values the metric column to add up.
+     * @param from the first row to look at.
+     * @param to the row after the last row to look at.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @param totals the count, sum, minimum and maximum to add the matching rows to.
+     */
+    void aggregate(int[] days, int[] values, int from, int to, int fromDay, int toDay, long[] totals);
+
+    /**
+     * @return the fastest implementation that can run in this JVM. Setting the system
+     * property covid.vector to false always gives the plain loop.
+     */
+    static ColumnKernels getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Loads the implementation once, the first time it is needed.
+     */
+    final class Holder {
+        static final ColumnKernels INSTANCE = load();
+
+        private Holder() {
+        }
+
+        private static ColumnKernels load() {
+            if (!"false".equals(System.getProperty("covid.vector"))) {
+                try {
+                    // loaded by name, so this still runs when the incubator module is missing
+                    return (ColumnKernels) Class.forName("VectorColumnKernels").getDeclaredConstructor().newInstance();
+                }
+                catch (ReflectiveOperationException | LinkageError e) {
+                    // fall through to the plain loop
+                }
+            }
+            return new ScalarColumnKernels();
+        }
+    }
+}
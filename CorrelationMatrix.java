@@ -0,0 +1,251 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Pearson correlations between the six mobility (GMR) columns and the new cases and new
+ * deaths columns, for each borough and for London as a whole, over a date range.
+ *
+ * With a lag, each row is paired with the row of the same borough lag days later, so the
+ * correlation of a leading metric with a lagged metric shows, for example, how closely
+ * transit mobility follows the number of new cases two weeks on. Only pairs of rows that
+ * are both in the date range are used.
+ *
+ * The matrix is worked out in one pass over the rows for each lag. Each borough's rows are
+ * read in date order from the borough index and added to exact running sums, sums of squares
+ * and sums of products, with the boroughs split between threads on the common fork/join pool.
+ * The London-wide correlations pool every borough's pairs, so they are the sums of the
+ * boroughs' sums and the result does not depend on how the work was split.
+ */
+public class CorrelationMatrix {
+
+    /**
+     * The metrics that are correlated with each other, in the order of the rows and
+     * columns of the matrix.
+     */
+    public static final CovidMetric[] METRICS = {
+        CovidMetric.RETAIL_RECREATION_GMR, CovidMetric.GROCERY_PHARMACY_GMR, CovidMetric.PARKS_GMR,
+        CovidMetric.TRANSIT_GMR, CovidMetric.WORKPLACES_GMR, CovidMetric.RESIDENTIAL_GMR,
+        CovidMetric.NEW_CASES, CovidMetric.NEW_DEATHS
+    };
+
+    private static final int SIZE = METRICS.length;
+
+    private final CovidDataset dataset;
+    private final int lag;
+    private final Sums[] boroughSums; // [borough code]
+    private final Sums londonSums;
+
+    private CorrelationMatrix(CovidDataset dataset, int lag, Sums[] boroughSums) {
+        this.dataset = dataset;
+        this.lag = lag;
+        this.boroughSums = boroughSums;
+        londonSums = new Sums();
+        for (Sums sums : boroughSums) {
+            londonSums.add(sums);
+        }
+    }
+
+    /**
+     * Work out the correlations of every pair of metrics over a date range.
+     *
+     * @param dataset the data set to read.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @param lag the number of days the second metric of each pair is read after the first.
+     * @return the correlations for every borough and for London.
+     * @throws IllegalArgumentException if the lag is negative.
+     */
+    public static CorrelationMatrix compute(CovidDataset dataset, int fromDay, int toDay, int lag) {
+        if (lag < 0) {
+            throw new IllegalArgumentException("lag must not be negative: " + lag);
+        }
+        Sums[] boroughSums = new Sums[dataset.getBoroughCount()];
+        ForkJoinPool.commonPool().invoke(new BoroughTask(dataset, fromDay, toDay, lag, boroughSums,
+            0, boroughSums.length));
+        return new CorrelationMatrix(dataset, lag, boroughSums);
+    }
+
+    /**
+     * @return the number of days the second metric of each pair is read after the first.
+     */
+    public int getLag() {
+        return lag;
+    }
+
+    /**
+     * @return the London-wide correlation of a metric with another metric lag days later,
+     * or NaN if either metric does not vary over the pairs of rows.
+     * @throws IllegalArgumentException if either metric is not one of METRICS.
+     */
+    public double get(CovidMetric leading, CovidMetric lagged) {
+        return londonSums.correlation(position(leading), position(lagged));
+    }
+
+    /**
+     * @return a borough's correlation of a metric with another metric lag days later,
+     * or NaN if the borough is not in the data set or either metric does not vary.
+     * @throws IllegalArgumentException if either metric is not one of METRICS.
+     */
+    public double get(String borough, CovidMetric leading, CovidMetric lagged) {
+        int code = dataset.findBoroughCode(borough);
+        return code < 0 ? Double.NaN : boroughSums[code].correlation(position(leading), position(lagged));
+    }
+
+    /**
+     * @return the number of pairs of rows the London-wide correlations are worked out from.
+     */
+    public long getPairCount() {
+        return londonSums.count;
+    }
+
+    /**
+     * @return the number of pairs of rows a borough's correlations are worked out from.
+     */
+    public long getPairCount(String borough) {
+        int code = dataset.findBoroughCode(borough);
+        return code < 0 ? 0 : boroughSums[code].count;
+    }
+
+    /**
+     * @return the position of a metric in METRICS.
+     */
+    private static int position(CovidMetric metric) {
+        for (int i = 0; i < SIZE; i++) {
+            if (METRICS[i] == metric) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException(metric + " is not part of the correlation matrix");
+    }
+
+    /**
+     * The exact running sums of the pairs of rows of one borough, or of several added together.
+     * The leading row of each pair gives the x values and the lagged row the y values.
+     */
+    private static final class Sums {
+        long count = 0;
+        final long[] sumX = new long[SIZE];
+        final long[] sumY = new long[SIZE];
+        final long[] sumXX = new long[SIZE];
+        final long[] sumYY = new long[SIZE];
+        final long[][] sumXY = new long[SIZE][SIZE];
+
+        /**
+         * Add a pair of rows.
+         */
+        void add(int[][] columns, int leadingRow, int laggedRow) {
+            count++;
+            for (int i = 0; i < SIZE; i++) {
+                long x = columns[i][leadingRow];
+                long y = columns[i][laggedRow];
+                sumX[i] += x;
+                sumY[i] += y;
+                sumXX[i] += x * x;
+                sumYY[i] += y * y;
+                for (int j = 0; j < SIZE; j++) {
+                    sumXY[i][j] += x * columns[j][laggedRow];
+                }
+            }
+        }
+
+        /**
+         * Add the sums of another set of pairs.
+         */
+        void add(Sums other) {
+            count += other.count;
+            for (int i = 0; i < SIZE; i++) {
+                sumX[i] += other.sumX[i];
+                sumY[i] += other.sumY[i];
+                sumXX[i] += other.sumXX[i];
+                sumYY[i] += other.sumYY[i];
+                for (int j = 0; j < SIZE; j++) {
+                    sumXY[i][j] += other.sumXY[i][j];
+                }
+            }
+        }
+
+        /**
+         * @return the correlation of x values of one metric with y values of another.
+         */
+        double correlation(int i, int j) {
+            double n = count;
+            double covariance = n * sumXY[i][j] - (double) sumX[i] * sumY[j];
+            double varianceX = n * sumXX[i] - (double) sumX[i] * sumX[i];
+            double varianceY = n * sumYY[j] - (double) sumY[j] * sumY[j];
+            if (count < 2 || varianceX <= 0 || varianceY <= 0) {
+                return Double.NaN;
+            }
+            return Math.max(-1, Math.min(1, covariance / Math.sqrt(varianceX * varianceY)));
+        }
+    }
+
+    /**
+     * Adds up the pairs of rows of a range of boroughs, splitting the range in half until
+     * each task has a single borough.
+     */
+    private static final class BoroughTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final CovidDataset dataset;
+        private final int fromDay;
+        private final int toDay;
+        private final int lag;
+        private final Sums[] boroughSums;
+        private final int from;
+        private final int to;
+
+        BoroughTask(CovidDataset dataset, int fromDay, int toDay, int lag, Sums[] boroughSums, int from, int to) {
+            this.dataset = dataset;
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.lag = lag;
+            this.boroughSums = boroughSums;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BoroughTask(dataset, fromDay, toDay, lag, boroughSums, from, middle),
+                    new BoroughTask(dataset, fromDay, toDay, lag, boroughSums, middle, to));
+                return;
+            }
+            for (int code = from; code < to; code++) {
+                boroughSums[code] = addPairs(code);
+            }
+        }
+
+        /**
+         * Walk a borough's rows in the date range in date order, pairing each row with the
+         * row lag days later, which is found by a second walk that only moves forward.
+         */
+        private Sums addPairs(int code) {
+            int[][] columns = new int[SIZE][];
+            for (int i = 0; i < SIZE; i++) {
+                columns[i] = dataset.column(METRICS[i]);
+            }
+            BoroughIndex index = dataset.getBoroughIndex();
+            int[] rows = index.rows(code);
+            int[] days = index.days(code);
+            int start = index.start(code, fromDay);
+            int end = index.end(code, toDay);
+
+            Sums sums = new Sums();
+            int lagged = start;
+            for (int leading = start; leading < end; leading++) {
+                int laggedDay = days[leading] + lag;
+                while (lagged < end && days[lagged] < laggedDay) {
+                    lagged++;
+                }
+                if (lagged == end) {
+                    break;
+                }
+                if (days[lagged] == laggedDay) {
+                    sums.add(columns, rows[leading], rows[lagged]);
+                }
+            }
+            return sums;
+        }
+    }
+}
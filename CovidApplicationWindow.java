@@ -1,4 +1,5 @@
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -28,8 +29,8 @@ import java.util.Arrays;
  
 public class CovidApplicationWindow extends Application {
     
-    private ComboBox fromComboBox;
-    private ComboBox toComboBox;
+    private ComboBox<String> fromComboBox;
+    private ComboBox<String> toComboBox;
 
     private static CovidDataLoader CDL = new CovidDataLoader();
     private StatisticsWindow statisticsWindow = new StatisticsWindow();
@@ -46,6 +47,7 @@ public class CovidApplicationWindow extends Application {
 
     private ArrayList<Pane> paneCarousel = new ArrayList<Pane>(Arrays.asList(pane1, pane2, pane3, pane4)); 
     private int paneCounter = 0; //this allows to loop through the list of panes using the forward, backward button
+    private boolean refreshingDates = false; //true while the date lists are being replaced with newer data
     
     public static void main(String[] args) {
         launch(args);
@@ -106,6 +108,9 @@ public class CovidApplicationWindow extends Application {
         toComboBox.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent actionEvent) {
+                if (refreshingDates) {
+                    return;
+                }
                 toComboBoxAction();
                 if(toComboBox.getSelectionModel().getSelectedItem() != null){
                     backwardButton.setDisable(false);
@@ -125,6 +130,9 @@ public class CovidApplicationWindow extends Application {
         fromComboBox.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent actionEvent) {
+                if (refreshingDates) {
+                    return;
+                }
                 fromComboBoxAction();
                 if(fromComboBox.getSelectionModel().getSelectedItem() != null){
                     backwardButton.setDisable(false);
@@ -168,6 +176,37 @@ public class CovidApplicationWindow extends Application {
         primaryStage.setScene(scene);
         primaryStage.setResizable(false);
         primaryStage.show();
+        
+        //refresh the panes whenever new rows are added to the data file
+        CovidDataRepository repository = CovidDataRepository.getInstance();
+        repository.addListener(dataset -> Platform.runLater(() -> refreshData()));
+        repository.startWatching();
+    }
+ 
+    /**
+     * This method updates the date lists, the map and the statistics after the data has changed,
+     * keeping the dates the user has selected
+     */
+    private void refreshData(){
+        String fromDate = fromComboBox.getValue();
+        String toDate = toComboBox.getValue();
+        
+        refreshingDates = true;
+        fromComboBox.getItems().setAll(CDL.getDates());
+        toComboBox.getItems().setAll(CDL.getDates());
+        fromComboBox.setValue(fromDate);
+        toComboBox.setValue(toDate);
+        refreshingDates = false;
+        
+        if (fromDate != null && toDate != null){
+            statisticsWindow.updateData(fromDate.toString(), toDate.toString());
+            try {
+                updateMapPane();
+            }
+            catch (java.text.ParseException pe) {
+                pe.printStackTrace();
+            }
+        }
     }
  
     /**
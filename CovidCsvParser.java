@@ -0,0 +1,608 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A parser made for the Covid London csv file.
+ * The file is memory-mapped and the dates and numbers are decoded straight from its
+ * bytes, so no String or String[] is created per line the way opencsv does. Borough
+ * names are looked up in a small byte dictionary, so a String is only created the
+ * first time a borough is seen.
+ *
+ * Large files are split into chunks that are parsed in parallel with fork/join.
+ *
+ * Like CovidDataLoader.convertInt, blank or whitespace-only cells (such as the
+ * missing GMR values) are read as 0. Quoted cells, as written by opencsv's CSVWriter,
+ * are also understood. A line with a cell that can't be decoded makes the parse fail,
+ * unless the parser was created to skip such lines.
+ */
+public class CovidCsvParser {
+
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    // Files are split into at most this many chunks per thread, but never into chunks smaller than MIN_CHUNK_SIZE bytes
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int ESTIMATED_ROW_SIZE = 50;
+
+    // Open-addressing dictionary from the bytes of a borough name to its code
+    private byte[][] dictionaryKeys = new byte[64][];
+    private int[] dictionaryCodes = new int[64];
+    private int dictionarySize = 0;
+
+    private CovidDatasetBuilder builder;
+    private ByteBuffer buffer;
+    private int position;
+    private final int[] values = new int[METRIC_COUNT];
+
+    private final boolean skipMalformedRows;
+    private int skippedRows = 0;
+
+    /**
+     * Create a parser that fails on a line it can't decode.
+     */
+    public CovidCsvParser() {
+        this(false);
+    }
+
+    /**
+     * @param skipMalformedRows true to leave out lines with a cell that can't be decoded,
+     *                          such as an impossible date, instead of failing.
+     */
+    public CovidCsvParser(boolean skipMalformedRows) {
+        this.skipMalformedRows = skipMalformedRows;
+    }
+
+    /**
+     * @return the number of lines left out as malformed by the calls to this parser so far.
+     */
+    public int getSkippedRows() {
+        return skippedRows;
+    }
+
+    /**
+     * Parse a Covid London csv file into a data set.
+     *
+     * @param file the csv file to parse. Its first line must be the column headers.
+     * @param version the version number to give the data set.
+     * @return a data set containing every row of the file, in file order.
+     * @throws IOException if the file can't be read.
+     * @throws NumberFormatException if a line can't be decoded and malformed lines aren't skipped.
+     */
+    public CovidDataset parse(File file, long version) throws IOException {
+        CovidDatasetBuilder builder = new CovidDatasetBuilder();
+        parse(file, builder);
+        return builder.build(version);
+    }
+
+    /**
+     * Parse every row of a Covid London csv file into a builder, using the
+     * common fork/join pool.
+     *
+     * @param file the csv file to parse. Its first line must be the column headers.
+     * @param builder the builder the rows are added to.
+     * @throws IOException if the file can't be read.
+     * @throws NumberFormatException if a line can't be decoded and malformed lines aren't skipped.
+     */
+    public void parse(File file, CovidDatasetBuilder builder) throws IOException {
+        parse(file, builder, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Parse every row of a Covid London csv file into a builder.
+     * The file is split into chunks that end on a line break, the chunks are parsed
+     * in parallel on the given pool and the results are added to the builder in
+     * file order, so the rows end up in exactly the same order as a sequential parse.
+     *
+     * @param file the csv file to parse. Its first line must be the column headers.
+     * @param builder the builder the rows are added to.
+     * @param pool the pool the chunks are parsed on.
+     * @throws IOException if the file can't be read.
+     * @throws NumberFormatException if a line can't be decoded and malformed lines aren't skipped.
+     */
+    public void parse(File file, CovidDatasetBuilder builder, ForkJoinPool pool) throws IOException {
+        try {
+            MappedByteBuffer mapped = map(file);
+            int length = mapped.capacity();
+            resetDictionary();
+            this.buffer = mapped;
+            int firstRow = skipLine(0, length);
+            int[] boundaries = chunkBoundaries(firstRow, length, pool.getParallelism());
+
+            if (boundaries.length == 2) {
+                this.builder = builder;
+                parseRows(firstRow, length);
+                return;
+            }
+            CovidDatasetBuilder[] chunks = new CovidDatasetBuilder[boundaries.length - 1];
+            int[] skipped = new int[chunks.length];
+            pool.invoke(new ChunkTask(mapped, boundaries, skipMalformedRows, chunks, skipped, 0, chunks.length));
+            for (int chunk = 0; chunk < chunks.length; chunk++) {
+                builder.addAll(chunks[chunk]);
+                skippedRows += skipped[chunk];
+            }
+        }
+        finally {
+            this.buffer = null;
+            this.builder = null;
+        }
+    }
+
+    /**
+     * Parse the complete lines that were added to a csv file after a given offset,
+     * for example rows appended since the file was last parsed. A last line that has
+     * no line break yet is left for the next call.
+     *
+     * @param file the csv file to read.
+     * @param offset the offset of the first byte that has not been parsed yet, which
+     *               must be the start of a line. At 0 the header line is skipped.
+     * @param builder the builder the new rows are added to.
+     * @return the offset just after the last line that was parsed.
+     * @throws IOException if the file can't be read.
+     * @throws NumberFormatException if a line can't be decoded and malformed lines aren't skipped.
+     */
+    public long parseFrom(File file, long offset, CovidDatasetBuilder builder) throws IOException {
+        try {
+            MappedByteBuffer mapped = map(file);
+            int end = mapped.capacity();
+            if (offset >= end) {
+                return offset;
+            }
+            resetDictionary();
+            this.buffer = mapped;
+            this.builder = builder;
+            while (end > offset && mapped.get(end - 1) != '\n') {
+                end--;
+            }
+            int start = offset == 0 ? Math.min(skipLine(0, end), end) : (int) offset;
+            parseRows(start, end);
+            return Math.max(end, offset);
+        }
+        finally {
+            this.buffer = null;
+            this.builder = null;
+        }
+    }
+
+    /**
+     * Parse lines held in memory, such as rows that have just been appended to the csv
+     * file, into a builder. The lines are decoded exactly as the lines of the file are,
+     * so the rows are the same as if the file had been parsed again.
+     *
+     * @param bytes the lines to parse, from the buffer's position to its limit, without a header line.
+     * @param builder the builder the rows are added to.
+     * @throws NumberFormatException if a line can't be decoded and malformed lines aren't skipped.
+     */
+    public void parse(ByteBuffer bytes, CovidDatasetBuilder builder) {
+        try {
+            resetDictionary();
+            this.buffer = bytes;
+            this.builder = builder;
+            parseRows(bytes.position(), bytes.limit());
+        }
+        finally {
+            this.buffer = null;
+            this.builder = null;
+        }
+    }
+
+    /**
+     * Memory-map the whole of a file.
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be memory-mapped");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+    }
+
+    /**
+     * Split the rows of the file into chunks that each start at the beginning of a line.
+     *
+     * @param start the offset of the first row.
+     * @param end the length of the file.
+     * @param parallelism the number of threads that will parse the chunks.
+     * @return the offsets the chunks start at, followed by the end of the file.
+     */
+    private int[] chunkBoundaries(int start, int end, int parallelism) {
+        int chunkCount = (int) Math.min((long) parallelism * CHUNKS_PER_THREAD, Math.max(1, (end - start) / MIN_CHUNK_SIZE));
+        if (parallelism <= 1 || chunkCount <= 1) {
+            return new int[]{start, end};
+        }
+        int[] boundaries = new int[chunkCount + 1];
+        int count = 0;
+        boundaries[count++] = start;
+        long chunkSize = (long) (end - start) / chunkCount;
+        for (int chunk = 1; chunk < chunkCount; chunk++) {
+            // move the split point forward to just after the next line break
+            int boundary = Math.min(end, skipLine((int) (start + chunk * chunkSize) - 1, end));
+            if (boundary > boundaries[count - 1] && boundary < end) {
+                boundaries[count++] = boundary;
+            }
+        }
+        boundaries[count++] = end;
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * Parses a range of chunks, splitting the range in two until a single chunk is left.
+     */
+    private static class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final MappedByteBuffer buffer;
+        private final int[] boundaries;
+        private final boolean skipMalformedRows;
+        private final CovidDatasetBuilder[] results;
+        private final int[] skipped;
+        private final int first;
+        private final int last;
+
+        ChunkTask(MappedByteBuffer buffer, int[] boundaries, boolean skipMalformedRows, CovidDatasetBuilder[] results,
+                int[] skipped, int first, int last) {
+            this.buffer = buffer;
+            this.boundaries = boundaries;
+            this.skipMalformedRows = skipMalformedRows;
+            this.results = results;
+            this.skipped = skipped;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (last - first > 1) {
+                int middle = (first + last) >>> 1;
+                invokeAll(new ChunkTask(buffer, boundaries, skipMalformedRows, results, skipped, first, middle),
+                    new ChunkTask(buffer, boundaries, skipMalformedRows, results, skipped, middle, last));
+                return;
+            }
+            int start = boundaries[first];
+            int end = boundaries[first + 1];
+            CovidCsvParser parser = new CovidCsvParser(skipMalformedRows);
+            parser.buffer = buffer;
+            parser.builder = new CovidDatasetBuilder((end - start) / ESTIMATED_ROW_SIZE + 1);
+            parser.parseRows(start, end);
+            results[first] = parser.builder;
+            skipped[first] = parser.skippedRows;
+        }
+    }
+
+    /**
+     * Parse every line that starts between two offsets of the buffer.
+     *
+     * @param start the offset of the first byte of a line.
+     * @param end the offset just after the last byte to be read.
+     */
+    private void parseRows(int start, int end) {
+        position = start;
+        while (position < end) {
+            byte first = buffer.get(position);
+            if (first == '\n' || first == '\r') {
+                // skip empty lines
+                position++;
+                continue;
+            }
+            int lineStart = position;
+            int day;
+            int borough;
+            try {
+                day = parseDate(end);
+                borough = parseBorough(end);
+                for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                    values[metric] = parseInt(end);
+                }
+            }
+            catch (NumberFormatException e) {
+                if (!skipMalformedRows) {
+                    throw e;
+                }
+                skippedRows++;
+                position = skipLine(lineStart, end);
+                continue;
+            }
+            position = skipLine(position, end);
+            builder.addRow(day, borough, values);
+        }
+    }
+
+    /**
+     * @return the offset of the first byte after the end of the line containing the given offset.
+     */
+    private int skipLine(int offset, int end) {
+        while (offset < end && buffer.get(offset) != '\n') {
+            offset++;
+        }
+        return offset + 1;
+    }
+
+    /**
+     * Decode a yyyy-MM-dd date cell and move past it.
+     *
+     * @return the date as a number of days since 1970-01-01.
+     */
+    private int parseDate(int end) {
+        boolean quoted = position < end && buffer.get(position) == '"';
+        int offset = quoted ? position + 1 : position;
+        if (offset + 10 > end || buffer.get(offset + 4) != '-' || buffer.get(offset + 7) != '-') {
+            throw new NumberFormatException("Invalid date at byte " + position);
+        }
+        int year = digits(offset, 4);
+        int month = digits(offset + 5, 2);
+        int day = digits(offset + 8, 2);
+        position = offset + 10;
+        if (quoted) {
+            position++;
+        }
+        skipSeparator(end);
+        return (int) epochDay(year, month, day);
+    }
+
+    /**
+     * Read a borough cell, look it up in the dictionary and move past it.
+     *
+     * @return the dictionary code of the borough.
+     */
+    private int parseBorough(int end) {
+        int start = position;
+        int stop;
+        boolean quoted = position < end && buffer.get(position) == '"';
+        boolean escapedQuotes = false;
+        if (quoted) {
+            start++;
+            position++;
+            while (true) {
+                if (position >= end) {
+                    stop = position;
+                    break;
+                }
+                if (buffer.get(position) == '"') {
+                    if (position + 1 < end && buffer.get(position + 1) == '"') {
+                        escapedQuotes = true;
+                        position += 2;
+                        continue;
+                    }
+                    stop = position;
+                    position++;
+                    break;
+                }
+                position++;
+            }
+        }
+        else {
+            while (position < end && !isCellEnd(buffer.get(position))) {
+                position++;
+            }
+            stop = position;
+        }
+        skipSeparator(end);
+
+        if (escapedQuotes) {
+            String name = new String(bytes(start, stop), StandardCharsets.UTF_8).replace("\"\"", "\"");
+            return builder.boroughCode(name);
+        }
+        return lookupBorough(start, stop);
+    }
+
+    /**
+     * Decode an integer cell and move past it. Blank cells are read as 0.
+     *
+     * @return the value of the cell.
+     */
+    private int parseInt(int end) {
+        skipWhitespace(end);
+        boolean quoted = position < end && buffer.get(position) == '"';
+        if (quoted) {
+            position++;
+            skipWhitespace(end);
+        }
+        boolean negative = false;
+        if (position < end && (buffer.get(position) == '-' || buffer.get(position) == '+')) {
+            negative = buffer.get(position) == '-';
+            position++;
+        }
+        long value = 0;
+        int digitCount = 0;
+        while (position < end) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw new NumberFormatException("Number too large at byte " + position);
+            }
+            digitCount++;
+            position++;
+        }
+        skipWhitespace(end);
+        if (quoted && position < end && buffer.get(position) == '"') {
+            position++;
+            skipWhitespace(end);
+        }
+        if (position < end && !isCellEnd(buffer.get(position))) {
+            throw new NumberFormatException("Invalid number at byte " + position);
+        }
+        if (digitCount == 0 && negative) {
+            throw new NumberFormatException("Invalid number at byte " + position);
+        }
+        skipSeparator(end);
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Number too large at byte " + position);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Move past the whitespace String.trim() would remove: any control character or space,
+     * except the ends of lines.
+     */
+    private void skipWhitespace(int end) {
+        while (position < end) {
+            byte b = buffer.get(position);
+            if (b < 0 || b > ' ' || b == '\n' || b == '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Move past the comma after a cell. The end of a line is left in place, so
+     * any cells missing from a short line are read as blank.
+     */
+    private void skipSeparator(int end) {
+        if (position < end && buffer.get(position) == ',') {
+            position++;
+        }
+    }
+
+    /**
+     * @return true if the byte ends a cell: a comma or the end of the line.
+     */
+    private boolean isCellEnd(byte b) {
+        return b == ',' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Decode a fixed number of ascii digits.
+     */
+    private int digits(int offset, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int digit = buffer.get(offset + i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid date at byte " + offset);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Find the code of the borough whose name is stored between two offsets of the
+     * buffer. The name is only turned into a String if it is not in the dictionary yet.
+     */
+    private int lookupBorough(int start, int stop) {
+        int hash = 1;
+        for (int i = start; i < stop; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int mask = dictionaryKeys.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (dictionaryKeys[slot] != null) {
+            if (matches(dictionaryKeys[slot], start, stop)) {
+                return dictionaryCodes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        byte[] key = bytes(start, stop);
+        int code = builder.boroughCode(new String(key, StandardCharsets.UTF_8));
+        dictionaryKeys[slot] = key;
+        dictionaryCodes[slot] = code;
+        dictionarySize++;
+        if (dictionarySize * 2 > dictionaryKeys.length) {
+            growDictionary();
+        }
+        return code;
+    }
+
+    /**
+     * @return true if the bytes between two offsets of the buffer equal the key.
+     */
+    private boolean matches(byte[] key, int start, int stop) {
+        if (key.length != stop - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Empty the borough dictionary, as the codes belong to the previous builder.
+     */
+    private void resetDictionary() {
+        dictionaryKeys = new byte[64][];
+        dictionaryCodes = new int[64];
+        dictionarySize = 0;
+    }
+
+    /**
+     * Double the size of the borough dictionary.
+     */
+    private void growDictionary() {
+        byte[][] oldKeys = dictionaryKeys;
+        int[] oldCodes = dictionaryCodes;
+        dictionaryKeys = new byte[oldKeys.length * 2][];
+        dictionaryCodes = new int[oldKeys.length * 2];
+        int mask = dictionaryKeys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int hash = 1;
+                for (byte b : oldKeys[i]) {
+                    hash = 31 * hash + b;
+                }
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (dictionaryKeys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                dictionaryKeys[slot] = oldKeys[i];
+                dictionaryCodes[slot] = oldCodes[i];
+            }
+        }
+    }
+
+    /**
+     * Copy the bytes between two offsets of the buffer.
+     */
+    private byte[] bytes(int start, int stop) {
+        byte[] copy = new byte[stop - start];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = buffer.get(start + i);
+        }
+        return copy;
+    }
+
+    /**
+     * Convert a date in the proleptic Gregorian calendar to a number of days since
+     * 1970-01-01, without creating a LocalDate. Dates that don't exist, such as
+     * 2022-02-30, are rejected as LocalDate.parse() would reject them.
+     */
+    static long epochDay(int year, int month, int day) {
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            throw new NumberFormatException("Invalid date " + year + "-" + month + "-" + day);
+        }
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * @return the number of days in a month of the proleptic Gregorian calendar.
+     */
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) {
+            boolean leap = (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+            return leap ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+}
@@ -0,0 +1,152 @@
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The test class CovidCsvParserTest.
+ */
+public class CovidCsvParserTest
+{
+    private CovidCsvParser parser;
+    private File csvFile;
+
+    /**
+     * Sets up the test fixture.
+     *
+     * Called before every test case method.
+     */
+    @BeforeEach
+    public void setUp() throws IOException
+    {
+        parser = new CovidCsvParser();
+        csvFile = File.createTempFile("covid_test", ".csv");
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @AfterEach
+    public void tearDown()
+    {
+        csvFile.delete();
+    }
+
+    private void writeCsv(String contents) throws IOException
+    {
+        FileWriter writer = new FileWriter(csvFile);
+        writer.write(contents);
+        writer.close();
+    }
+
+    @Test
+    public void testParseRows() throws IOException {
+        writeCsv("date,borough,retail_and_recreation,grocery_and_pharmacy,parks,transit_stations,workplaces,residential,new_cases,total_cases,new_deaths,total_deaths\n"
+            + "2022-06-30,Redbridge,-15,-3,4,-32,-37,5,79,102321,0,933\n"
+            + "2022-06-29,Camden,-31,-14,15,-9,-37,7,92,74692,0,363\n");
+        CovidDataset dataset = parser.parse(csvFile, 1);
+
+        assertEquals(2, dataset.size());
+        assertEquals("2022-06-30", dataset.getDate(0));
+        assertEquals("Redbridge", dataset.getBorough(0));
+        assertEquals(-15, dataset.getValue(CovidMetric.RETAIL_RECREATION_GMR, 0));
+        assertEquals(102321, dataset.getValue(CovidMetric.TOTAL_CASES, 0));
+        assertEquals("Camden", dataset.getBorough(1));
+        assertEquals(363, dataset.getValue(CovidMetric.TOTAL_DEATHS, 1));
+    }
+
+    @Test
+    public void testBlankCellsAreZero() throws IOException {
+        writeCsv("header\r\n"
+            + "2023-02-09,Westminster,,,, ,,,,,0,443\r\n");
+        CovidDataset dataset = parser.parse(csvFile, 1);
+
+        assertEquals(1, dataset.size());
+        assertEquals(0, dataset.getValue(CovidMetric.PARKS_GMR, 0));
+        assertEquals(0, dataset.getValue(CovidMetric.TRANSIT_GMR, 0));
+        assertEquals(443, dataset.getValue(CovidMetric.TOTAL_DEATHS, 0));
+    }
+
+    @Test
+    public void testQuotedCells() throws IOException {
+        writeCsv("\"date\",\"borough\"\n"
+            + "\"2022-06-27\",\"Harrow\",\"-5\",\"17\",\"83\",\"-16\",\"-22\",\"7\",\"106\",\"83586\",\"1\",\"648\"\n"
+            + "\"2022-06-27\",\"Harrow\",\"\",\"\",\"\",\"\",\"\",\"\",\"3\",\"83589\",\"0\",\"648\"\n");
+        CovidDataset dataset = parser.parse(csvFile, 1);
+
+        assertEquals(2, dataset.size());
+        assertEquals(1, dataset.getBoroughCount());
+        assertEquals("Harrow", dataset.getBorough(1));
+        assertEquals(83, dataset.getValue(CovidMetric.PARKS_GMR, 0));
+        assertEquals(0, dataset.getValue(CovidMetric.PARKS_GMR, 1));
+        assertEquals(83589, dataset.getValue(CovidMetric.TOTAL_CASES, 1));
+    }
+
+    @Test
+    public void testMatchesOpenCsv() throws IOException {
+        CovidDataLoader loader = new CovidDataLoader();
+        CovidDataset mapped = parser.parse(loader.getDataFile(), 1);
+        CovidDataset openCsv = loader.loadDatasetWithOpenCsv(1);
+
+        assertEquals(openCsv.size(), mapped.size());
+        for (int row = 0; row < mapped.size(); row++) {
+            assertEquals(openCsv.getRecord(row).toString(), mapped.getRecord(row).toString());
+        }
+    }
+
+    @Test
+    public void testParallelParseKeepsFileOrder() throws IOException {
+        File file = new CovidDataLoader().getDataFile();
+        CovidDatasetBuilder sequential = new CovidDatasetBuilder();
+        parser.parse(file, sequential, new ForkJoinPool(1));
+        CovidDatasetBuilder parallel = new CovidDatasetBuilder();
+        parser.parse(file, parallel, new ForkJoinPool(4));
+        CovidDataset expected = sequential.build(1);
+        CovidDataset actual = parallel.build(1);
+
+        assertEquals(expected.size(), actual.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getBoroughCode(row), actual.getBoroughCode(row));
+            assertEquals(expected.getRecord(row).toString(), actual.getRecord(row).toString());
+        }
+    }
+
+    @Test
+    public void testWhitespaceAroundCells() throws IOException {
+        writeCsv("header\n2022-06-27,Harrow,\t-5 ,\" 17\t\",\t,-16,-22,7,106,83586,1,648\n");
+        CovidDataset dataset = parser.parse(csvFile, 1);
+
+        assertEquals(-5, dataset.getValue(CovidMetric.RETAIL_RECREATION_GMR, 0));
+        assertEquals(17, dataset.getValue(CovidMetric.GROCERY_PHARMACY_GMR, 0));
+        assertEquals(0, dataset.getValue(CovidMetric.PARKS_GMR, 0));
+        assertEquals(-16, dataset.getValue(CovidMetric.TRANSIT_GMR, 0));
+    }
+
+    @Test
+    public void testDatesMatchLocalDate() throws IOException {
+        for (LocalDate date = LocalDate.of(1999, 1, 1); date.getYear() < 2102; date = date.plusDays(1)) {
+            assertEquals(date.toEpochDay(),
+                CovidCsvParser.epochDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth()));
+        }
+        writeCsv("header\n2022-02-30,Harrow,-5,17,83,-16,-22,7,106,83586,1,648\n");
+
+        assertThrows(NumberFormatException.class, () -> parser.parse(csvFile, 1));
+        assertThrows(NumberFormatException.class, () -> CovidCsvParser.epochDay(2100, 2, 29));
+        assertEquals(LocalDate.of(2000, 2, 29).toEpochDay(), CovidCsvParser.epochDay(2000, 2, 29));
+    }
+
+    @Test
+    public void testInvalidNumber() throws IOException {
+        writeCsv("header\n2022-06-27,Harrow,abc,17,83,-16,-22,7,106,83586,1,648\n");
+
+        assertThrows(NumberFormatException.class, () -> parser.parse(csvFile, 1));
+    }
+}
@@ -1,10 +1,6 @@
+import java.util.ArrayList;
 import java.util.List;
-import java.io.FileWriter;
-import com.opencsv.CSVWriter;
-import java.net.URL;
-import java.io.File;
 import java.io.IOException;
-import java.net.URISyntaxException;
 
 
 /**
@@ -15,23 +11,25 @@ import java.net.URISyntaxException;
  */
 public class CovidDataEditor
 {
-    private List<String[]> rows; // The rows of CovidData entries
+    private List<String[]> rows = new ArrayList<String[]>(); // The new entries that have not been saved yet
     
     public CovidDataEditor(){
-        CovidDataLoader loader = new CovidDataLoader();
-        rows = loader.loadAsStringList();
     }
     
     /**
-     * Saves all known rows of covid data to the csv.
+     * Appends the new rows to the end of the csv file the data is loaded from and adds
+     * them to the shared data set. Only the new rows are written, and the file is not
+     * read again. The rows are either all written or none are, so after a failed save
+     * they are still waiting and saving again doesn't write any of them twice. Rows that
+     * can't be decoded are dropped, as saving them could never succeed.
      * 
      * @return True if the save was succesful.
      */
     public boolean saveChanges(){
         try{
-            CSVWriter writer = new CSVWriter(new FileWriter("covid_london.csv"));
-            writer.writeAll(rows);
-            writer.close();
+            //publish the change straight away, so cached results of the old data are dropped
+            CovidDataRepository.getInstance().appendRows(rows);
+            rows.clear();
             return true;
         }
         catch(IOException e){
@@ -39,10 +37,15 @@ public class CovidDataEditor
             e.printStackTrace();
             return false;
         }
+        catch(IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            rows.clear();
+            return false;
+        }
     }
     
     /**
-     * Adds a new covid data entry for today's date to the rows list.
+     * Adds a new covid data entry for today's date to the rows to be saved.
      * 
      * @param borough The borough associated with the new entry.
      * @param newCases The number of new covid cases.
@@ -60,6 +63,7 @@ public class CovidDataEditor
     
     /**
      * Calculate and return the number of total cases to date for a given borough.
+     * The saved rows are summarised from the shared data set rather than read one by one.
      * 
      * @param borough The borough we want to get total cases for.
      * @return The number of total cases for the given borough.
@@ -67,6 +71,10 @@ public class CovidDataEditor
     public int getCurrentTotalCases(String borough){
         int totalCases = 0;
         
+        MetricSummary saved = CovidDataRepository.getInstance().query().boroughs(borough).summarize();
+        if(saved.getCount() > 0 && saved.getMax(CovidMetric.TOTAL_CASES) > totalCases){
+            totalCases = saved.getMax(CovidMetric.TOTAL_CASES);
+        }
         for(String[] row : rows){
             if(row[1].equals(borough)){
                 if(convertInt(row[9]) > totalCases){
@@ -80,6 +88,7 @@ public class CovidDataEditor
     
     /**
      * Calculate and return the number of total deaths to date for a given borough.
+     * The saved rows are summarised from the shared data set rather than read one by one.
      * 
      * @param borough The borough we want to get total deaths for.
      * @return The number of total deaths for the given borough.
@@ -87,6 +96,10 @@ public class CovidDataEditor
     public int getCurrentTotalDeaths(String borough){
         int totalDeaths = 0;
         
+        MetricSummary saved = CovidDataRepository.getInstance().query().boroughs(borough).summarize();
+        if(saved.getCount() > 0 && saved.getMax(CovidMetric.TOTAL_DEATHS) > totalDeaths){
+            totalDeaths = saved.getMax(CovidMetric.TOTAL_DEATHS);
+        }
         for(String[] row : rows){
             if(row[1].equals(borough)){
                 if(convertInt(row[11]) > totalDeaths){
@@ -0,0 +1,14 @@
+/**
+ * Notified by the CovidDataRepository whenever a new version of the data set is published,
+ * for example after rows have been appended to the csv file.
+ */
+public interface CovidDataListener {
+
+    /**
+     * Called after a new version of the data set has been published. This may be called
+     * from a background thread, so windows should hand any UI changes to the JavaFX thread.
+     *
+     * @param dataset the new snapshot of the data set.
+     */
+    void dataChanged(CovidDataset dataset);
+}
@@ -10,33 +10,102 @@ import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.List;
 import java.util.*;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class CovidDataLoader {
     
-    private ArrayList<String> covid_dates = new ArrayList<String>();
-    
-    public CovidDataLoader(){
-        load(); //gets the covid data to extract the dates from
-        for (CovidData data: load()){
-            String date = data.getDate(); //gets date from the list
-            if (!(covid_dates.contains(date))){ //ensures that the dates don't repeat in the list. so that they are unique 
-                covid_dates.add(date);
-            }
+    /**
+     * @return the Covid London data set csv file that the data is read from.
+     */
+    public File getDataFile() {
+        try{
+            URL url = getClass().getResource("covid_london.csv");
+            return new File(url.toURI()).getAbsoluteFile();
+        } catch(URISyntaxException e){
+            throw new IllegalStateException("covid_london.csv could not be located", e);
         }
-        Collections.sort(covid_dates);
     }
     
     /** 
+     * Parse the csv file. This reads the whole file every time it is called, so windows
+     * should get their data from the CovidDataRepository instead.
+     * 
      * @return an ArrayList containing the rows in the Covid London data set csv file.
      */
     public ArrayList<CovidData> load() {
+        return new ArrayList<CovidData>(loadDataset(0).getRecords());
+    }
+    
+    /**
+     * @return the binary snapshot file kept next to the csv file.
+     */
+    public File getSnapshotFile() {
+        return new File(getDataFile().getParentFile(), "covid_london.bin");
+    }
+    
+    /**
+     * Load the data set. If a binary snapshot of the current csv file exists it is
+     * read instead of the csv file. Otherwise the csv file is parsed with the
+     * memory-mapped CovidCsvParser and a new snapshot is written for the next start.
+     * The rows are sorted by date, so date ranges are runs of rows; the snapshot is
+     * written sorted, so reading it needs no sorting. Lines of the csv file that can't
+     * be decoded, such as one with an impossible date, are left out so the rest of the
+     * data still loads.
+     * 
+     * @param version the version number to give the data set.
+     * @return a CovidDataset containing the rows in the Covid London data set csv file.
+     */
+    public CovidDataset loadDataset(long version) {
+        File csvFile = getDataFile();
+        CovidDataSnapshot snapshot = new CovidDataSnapshot(getSnapshotFile());
+        try{
+            CovidDataset dataset = snapshot.read(csvFile, version);
+            if (dataset != null) {
+                return dataset.sortedByDay();
+            }
+        } catch(IOException e){
+            System.out.println("The data snapshot could not be read, loading the csv file instead.");
+        }
+        
+        try{
+            long csvLength = csvFile.length();
+            long csvModified = csvFile.lastModified();
+            long csvChecksum = CovidDataSnapshot.checksum(csvFile);
+            CovidCsvParser parser = new CovidCsvParser(true);
+            CovidDataset dataset = parser.parse(csvFile, version).sortedByDay();
+            if (parser.getSkippedRows() > 0) {
+                System.out.println(parser.getSkippedRows() + " malformed rows of the csv file were left out.");
+            }
+            try{
+                snapshot.write(dataset, csvLength, csvModified, csvChecksum);
+            } catch(IOException e){
+                System.out.println("The data snapshot could not be saved.");
+            }
+            return dataset;
+        } catch(IOException e){
+            System.out.println("Something Went Wrong?!");
+            e.printStackTrace();
+            return new CovidDatasetBuilder().build(version);
+        }
+    }
+    
+    /**
+     * Parse the csv file into a CovidDataset using opencsv. This is slower than
+     * loadDataset() and is kept as the reference the faster parser is checked
+     * and benchmarked against.
+     * 
+     * @param version the version number to give the data set.
+     * @return a CovidDataset containing the rows in the Covid London data set csv file.
+     */
+    public CovidDataset loadDatasetWithOpenCsv(long version) {
         //System.out.println("Begin loading Covid London dataset...");
-        ArrayList<CovidData> records = new ArrayList<CovidData>();
+        CovidDatasetBuilder builder = new CovidDatasetBuilder();
+        int[] values = new int[CovidMetric.values().length];
         try{
-            URL url = getClass().getResource("covid_london.csv");
-            CSVReader reader = new CSVReader(new FileReader(new File(url.toURI()).getAbsolutePath()));
+            CSVReader reader = new CSVReader(new FileReader(getDataFile()));
             String [] line;
             //skip the first row (column headers)
             reader.readNext();
@@ -44,28 +113,18 @@ public class CovidDataLoader {
                 
                 String date    = line[0];
                 String borough    = line[1];    
-                int retailRecreationGMR    = convertInt(line[2]);    
-                int groceryPharmacyGMR    = convertInt(line[3]);    
-                int parksGMR    = convertInt(line[4]);    
-                int transitGMR    = convertInt(line[5]);    
-                int workplacesGMR    = convertInt(line[6]);    
-                int residentialGMR    = convertInt(line[7]);    
-                int newCases    = convertInt(line[8]);    
-                int totalCases    = convertInt(line[9]);    
-                int newDeaths    = convertInt(line[10]);    
-                int totalDeaths    = convertInt(line[11]);                
-
-                CovidData record = new CovidData(date,borough,retailRecreationGMR,
-                    groceryPharmacyGMR,parksGMR,transitGMR,workplacesGMR,
-                    residentialGMR,newCases,totalCases,newDeaths,totalDeaths);
-                records.add(record);
+                for (int metric = 0; metric < values.length; metric++) {
+                    values[metric] = convertInt(line[metric + 2]);
+                }
+                builder.addRow(date, borough, values);
             }
-        } catch(IOException | URISyntaxException e){
+            reader.close();
+        } catch(IOException e){
             System.out.println("Something Went Wrong?!");
             e.printStackTrace();
         }
-        //System.out.println("Number of Loaded Records: " + records.size());
-        return records;
+        //System.out.println("Number of Loaded Records: " + builder.size());
+        return builder.build(version);
     }
     
     /**
@@ -79,13 +138,12 @@ public class CovidDataLoader {
         List<String[]> covidData = null;
         
         try{
-            URL url = getClass().getResource("covid_london.csv");
-            CSVReader reader = new CSVReader(new FileReader(new File(url.toURI()).getAbsolutePath()));
+            CSVReader reader = new CSVReader(new FileReader(getDataFile()));
             
             covidData = reader.readAll();
             reader.close();
         }
-        catch(IOException | URISyntaxException e){
+        catch(IOException e){
             System.out.println("Something Went Wrong?!");
             e.printStackTrace();
         }
@@ -123,7 +181,7 @@ public class CovidDataLoader {
      * @returns the list of all unique dates in the CSV file
      */
     public ArrayList<String> getDates(){
-        return covid_dates;
+        return new ArrayList<String>(CovidDataRepository.getInstance().getDataset().getDates());
     }
     
 
@@ -135,12 +193,17 @@ public class CovidDataLoader {
     public ArrayList<CovidData> loadBoroughData(String borough, Date startDate, Date endDate) throws java.text.ParseException{
         ArrayList<CovidData> boroughData = new ArrayList<CovidData>();
         
-        ArrayList<CovidData> covidData = load();
+        CovidDataset dataset = CovidDataRepository.getInstance().getDataset();
+        int boroughCode = dataset.findBoroughCode(borough);
+        if (boroughCode < 0) {
+            return boroughData;
+        }
         
-        for(int i = 0; i < covidData.size(); i++){
-            if(covidData.get(i).getBorough().equals(borough) && dateInRange(startDate, convertStringToDate(covidData.get(i).getDate()), endDate)){
-                boroughData.add(covidData.get(i));
-            }
+        BoroughIndex index = dataset.getBoroughIndex();
+        int[] rows = index.rows(boroughCode);
+        int end = index.end(boroughCode, toEpochDay(endDate));
+        for (int i = index.start(boroughCode, toEpochDay(startDate)); i < end; i++) {
+            boroughData.add(dataset.getRecord(rows[i]));
         }
         
         return boroughData;
@@ -152,50 +215,56 @@ public class CovidDataLoader {
      * @return An ArrayList of all CovidData objects within the date range.
      */
     public ArrayList<CovidData> loadPeriodData(Date startDate, Date endDate) throws java.text.ParseException{
-        ArrayList<CovidData> data = new ArrayList<CovidData>();
-        
-        ArrayList<CovidData> covidData = load();
-        
-        for(int i = 0; i < covidData.size(); i++){
-            if(dateInRange(startDate, convertStringToDate(covidData.get(i).getDate()), endDate)){
-                data.add(covidData.get(i));
-            }
-        }
-        
-        return data;
+        return stream(null, startDate, endDate).collect(Collectors.toCollection(ArrayList::new));
     }
-        
+    
     /**
-     * Check if a date is within a given date range.
-     * 
-     * @param firstDate The date at the beginning of the range.
-     * @param betweenDate The date to be looked for within this range.
-     * @param lastDate The date at the end of the range.
+     * Stream the covid data for a borough and date range from the shared data set.
+     * The rows are filtered before any CovidData object is created, and no list of
+     * all the rows is ever built.
      * 
-     * @return True if the date is within the given range.
+     * @param borough the borough to include, or null to include every borough.
+     * @param startDate the first date to include.
+     * @param endDate the last date to include.
+     * @return a stream of the matching rows, sorted by date.
      */
-    private boolean dateInRange(Date firstDate, Date betweenDate, Date lastDate){
-        if(betweenDate.equals(firstDate)){
-            return true;
+    public Stream<CovidData> stream(String borough, Date startDate, Date endDate){
+        CovidDataset dataset = CovidDataRepository.getInstance().getDataset();
+        if (borough == null) {
+            return dataset.stream(toEpochDay(startDate), toEpochDay(endDate), -1);
         }
-        else if(betweenDate.equals(lastDate)){
-            return true;
+        int boroughCode = dataset.findBoroughCode(borough);
+        if (boroughCode < 0) {
+            return Stream.empty();
         }
-        else if(betweenDate.after(firstDate) && betweenDate.before(lastDate)){
-            return true;
-        }
-        return false;
+        BoroughIndex index = dataset.getBoroughIndex();
+        return Arrays.stream(index.rows(boroughCode), index.start(boroughCode, toEpochDay(startDate)),
+            index.end(boroughCode, toEpochDay(endDate))).mapToObj(dataset::getRecord);
+    }
+    
+    /**
+     * Add up metrics for every borough over a date range in one go.
+     * The result is cached until the data set changes.
+     * 
+     * @param startDate the first date to include.
+     * @param endDate the last date to include.
+     * @param metrics the metrics to add up.
+     * @return the totals of each metric for every borough.
+     */
+    public BoroughAggregation aggregateByBorough(Date startDate, Date endDate, CovidMetric... metrics){
+        CovidDataRepository repository = CovidDataRepository.getInstance();
+        CovidDataset dataset = repository.getDataset();
+        int fromDay = toEpochDay(startDate);
+        int toDay = toEpochDay(endDate);
+        List<Object> key = Arrays.asList("aggregateByBorough", dataset.getVersion(), fromDay, toDay, Arrays.asList(metrics));
+        return repository.getQueryCache().get(key, () -> new BoroughAggregation(dataset, fromDay, toDay, metrics));
     }
     
     /**
-     * this method converts a string date into the Date data type
-     * @return Date
-     * @param String 
+     * Convert a date to a number of days since 1970-01-01, in the local time zone.
      */
-    private Date convertStringToDate(String dateString) throws java.text.ParseException {
-        DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd"); 
-        Date date = (Date)formatter.parse(dateString);
-        return date;
+    private int toEpochDay(Date date){
+        return (int) Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
     }
     
     /**
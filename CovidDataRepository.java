@@ -0,0 +1,369 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32;
+import com.opencsv.CSVWriter;
+
+/**
+ * The single, process-wide holder of the Covid London data set.
+ * The csv file is parsed once and the result is handed out to every window as a
+ * read-only CovidDataset snapshot. The file is only parsed again when it has
+ * actually changed on disk (its size or modification time differ).
+ *
+ * The repository remembers how many bytes of the file it has parsed. When rows are
+ * only appended to the file, just the new bytes are parsed and added to the data set.
+ * Any other change to the file causes a full reload. The file can also be watched with
+ * a WatchService, so listeners are told about new rows as soon as they are written.
+ * Rows added by the application itself go through appendRows(), which appends them to
+ * the file and adds them to the data set without reading the file again.
+ * Query results are cached until the next version of the data set is published.
+ */
+public class CovidDataRepository {
+
+    // The number of bytes before the parsed offset used to check the parsed part hasn't changed
+    private static final int FINGERPRINT_SIZE = 4096;
+
+    private static CovidDataRepository instance;
+
+    private final CovidDataLoader loader;
+    private CovidDataset dataset;
+    private long version = 0;
+
+    // Used to notice when the csv file has been changed on disk
+    private long sourceModified = -1;
+    private long sourceLength = -1;
+    private long consumedLength = 0;
+    private long consumedFingerprint = 0;
+
+    private final QueryCache queryCache = new QueryCache();
+
+    private final List<CovidDataListener> listeners = new CopyOnWriteArrayList<CovidDataListener>();
+    private Thread watcher;
+
+    private CovidDataRepository() {
+        this(new CovidDataLoader());
+    }
+
+    /**
+     * Create a repository of the csv file of a loader, rather than the shared one.
+     */
+    CovidDataRepository(CovidDataLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @return the repository shared by the whole application.
+     */
+    public static synchronized CovidDataRepository getInstance() {
+        if (instance == null) {
+            instance = new CovidDataRepository();
+        }
+        return instance;
+    }
+
+    /**
+     * Return the current snapshot of the data set, parsing the csv file first
+     * if it has not been parsed yet or has changed since it was last parsed.
+     *
+     * @return the current read-only snapshot of the data set.
+     */
+    public synchronized CovidDataset getDataset() {
+        File file = loader.getDataFile();
+        if (dataset == null || file.lastModified() != sourceModified || file.length() != sourceLength) {
+            refresh();
+        }
+        return dataset;
+    }
+
+    /**
+     * @return a query over the current snapshot whose results are cached until the data changes.
+     */
+    public CovidQuery query() {
+        return CovidQuery.from(getDataset()).cachedIn(queryCache);
+    }
+
+    /**
+     * @return the cache of query results on the current data, for its hit and miss counts.
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Bring the data set up to date with the csv file. If rows have only been appended
+     * to the file since it was last parsed, just the appended bytes are parsed.
+     * Otherwise the whole file is parsed again.
+     *
+     * @return the current snapshot of the data set.
+     */
+    public synchronized CovidDataset refresh() {
+        File file = loader.getDataFile();
+        long length = file.length();
+        long modified = file.lastModified();
+        if (dataset == null) {
+            return reload();
+        }
+        if (length == sourceLength && modified == sourceModified) {
+            return dataset;
+        }
+        try {
+            if (consumedLength >= 0 && length > consumedLength && fingerprint(file, consumedLength) == consumedFingerprint) {
+                CovidDatasetBuilder tail = new CovidDatasetBuilder();
+                long consumed = new CovidCsvParser().parseFrom(file, consumedLength, tail);
+                sourceLength = length;
+                sourceModified = modified;
+                if (tail.size() > 0) {
+                    version++;
+                    setConsumed(file, consumed);
+                    publish(dataset.append(tail.build(0), version));
+                }
+                return dataset;
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            System.out.println("The new rows could not be read, reloading the whole file instead.");
+        }
+        return reload();
+    }
+
+    /**
+     * Parse the csv file again and publish a new snapshot.
+     *
+     * @return the new snapshot of the data set.
+     */
+    public synchronized CovidDataset reload() {
+        File file = loader.getDataFile();
+        sourceModified = file.lastModified();
+        sourceLength = file.length();
+        version++;
+        CovidDataset reloaded = loader.loadDataset(version);
+        try {
+            setConsumed(file, sourceLength);
+        }
+        catch (IOException e) {
+            // without a fingerprint the next change will cause a full reload
+            consumedLength = -1;
+        }
+        publish(reloaded);
+        return dataset;
+    }
+
+    /**
+     * Append rows to the end of the csv file and add them to the data set. The rows are
+     * parsed first, so rows that can't be decoded are never written. They are then
+     * written with a single append and forced to disk before they are published, so a
+     * submission costs the same however large the file is. The file is not read again:
+     * the parsed rows are added to the data set and the parsed offset is moved past them.
+     * If the file had changed on disk since it was last parsed, it is refreshed instead.
+     *
+     * The rows are either all written or, if this throws, none of them are: a write that
+     * fails part of the way is cut off again.
+     *
+     * @param rows the rows to append, as the cells of each csv line.
+     * @return the current snapshot of the data set, including the new rows.
+     * @throws IOException if the rows can't be written.
+     * @throws IllegalArgumentException if a row can't be decoded; nothing is written.
+     */
+    public synchronized CovidDataset appendRows(List<String[]> rows) throws IOException {
+        File file = loader.getDataFile();
+        boolean upToDate = dataset != null && file.length() == sourceLength && file.lastModified() == sourceModified
+            && consumedLength == sourceLength;
+
+        StringWriter lines = new StringWriter();
+        if (!endsWithLineBreak(file)) {
+            // a last line without a line break would run into the first new row
+            lines.write('\n');
+        }
+        CSVWriter writer = new CSVWriter(lines);
+        for (String[] row : rows) {
+            writer.writeNext(row, false);
+        }
+        writer.close();
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+        CovidDatasetBuilder tail = new CovidDatasetBuilder(rows.size());
+        try {
+            new CovidCsvParser().parse(bytes, tail);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The rows can't be saved: " + e.getMessage(), e);
+        }
+
+        bytes.rewind();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long originalLength = channel.size();
+            try {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                channel.force(true);
+            }
+            catch (IOException e) {
+                // don't leave part of a row behind, or saving again would write it twice
+                channel.truncate(originalLength);
+                throw e;
+            }
+        }
+        if (!upToDate) {
+            return refresh();
+        }
+
+        sourceLength = file.length();
+        sourceModified = file.lastModified();
+        version++;
+        try {
+            setConsumed(file, sourceLength);
+        }
+        catch (IOException e) {
+            // without a fingerprint the next change will cause a full reload
+            consumedLength = -1;
+        }
+        try {
+            publish(dataset.append(tail.build(0), version));
+        }
+        catch (RuntimeException e) {
+            // the rows are on disk by now, so read them back rather than report a failed save
+            return reload();
+        }
+        return dataset;
+    }
+
+    /**
+     * Register a listener that is told about every new version of the data set.
+     */
+    public void addListener(CovidDataListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop telling a listener about new versions of the data set.
+     */
+    public void removeListener(CovidDataListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start watching the csv file on a background thread, refreshing the data set
+     * whenever the file is changed. Calling this more than once has no effect.
+     */
+    public synchronized void startWatching() {
+        if (watcher != null) {
+            return;
+        }
+        Path csvPath = loader.getDataFile().toPath();
+        watcher = new Thread(() -> watch(csvPath), "covid-data-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Wait for changes to the csv file until the thread is interrupted.
+     */
+    private void watch(Path csvPath) {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            csvPath.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (csvPath.getFileName().equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    refresh();
+                }
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e) {
+            // the watcher was stopped
+        }
+        catch (IOException e) {
+            System.out.println("The data file can't be watched for changes.");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Make a new snapshot the current one and tell the listeners about it.
+     */
+    private void publish(CovidDataset newDataset) {
+        // build the totals used by the map and the statistics straight away, rather than on the first query
+        newDataset.getCumulativeSums(CovidMetric.NEW_CASES);
+        newDataset.getCumulativeSums(CovidMetric.NEW_DEATHS);
+        newDataset.getDailyRollup();
+        newDataset.getRollupCube();
+
+        boolean first = dataset == null;
+        queryCache.invalidate();
+        dataset = newDataset;
+        if (!first) {
+            for (CovidDataListener listener : listeners) {
+                // the data is published whatever a listener does, so one failing doesn't hold up the others
+                try {
+                    listener.dataChanged(newDataset);
+                }
+                catch (RuntimeException e) {
+                    System.out.println("A window could not show the new data.");
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remember how much of the file has been parsed, and a fingerprint of the bytes
+     * just before that point so a rewrite of the parsed part can be noticed.
+     */
+    private void setConsumed(File file, long consumed) throws IOException {
+        consumedFingerprint = fingerprint(file, consumed);
+        consumedLength = consumed;
+    }
+
+    /**
+     * @return true if a file is empty or its last byte is a line break.
+     */
+    private static boolean endsWithLineBreak(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length == 0) {
+                return true;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            return channel.read(last, length - 1) == 1 && last.get(0) == '\n';
+        }
+    }
+
+    /**
+     * @return the CRC32 checksum of the FINGERPRINT_SIZE bytes before an offset of the file.
+     */
+    private static long fingerprint(File file, long offset) throws IOException {
+        long start = Math.max(0, offset - FINGERPRINT_SIZE);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (offset - start));
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes, start + bytes.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        bytes.flip();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+}
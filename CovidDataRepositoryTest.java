@@ -0,0 +1,133 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The test class CovidDataRepositoryTest.
+ *
+ * Each test uses its own copy of a small csv file in a temporary directory, so the
+ * application's data file is never written to.
+ */
+public class CovidDataRepositoryTest
+{
+    private File directory;
+    private File csvFile;
+    private CovidDataRepository repository;
+
+    /**
+     * Sets up the test fixture.
+     *
+     * Called before every test case method.
+     */
+    @BeforeEach
+    public void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("covid_repository").toFile();
+        csvFile = new File(directory, "covid_london.csv");
+        FileWriter writer = new FileWriter(csvFile);
+        writer.write("date,borough,retail_and_recreation,grocery_and_pharmacy,parks,transit_stations,workplaces,residential,new_cases,total_cases,new_deaths,total_deaths\n"
+            + "2022-06-30,Redbridge,-15,-3,4,-32,-37,5,79,102321,0,933\n"
+            + "2022-06-30,Greenwich,-10,8,-1,-18,-38,6,104,92920,0,582\n"
+            + "2022-06-29,Camden,-31,-14,15,-9,-37,7,92,74692,0,363\n"
+            + "2022-06-29,Redbridge,-18,0,5,-28,-39,5,95,102242,0,933\n"
+            + "2022-06-28,Waltham Forest,-12,0,8,-33,-36,5,76,91943,0,634\n");
+        writer.close();
+        repository = new CovidDataRepository(new CovidDataLoader() {
+            @Override
+            public File getDataFile() {
+                return csvFile;
+            }
+        });
+    }
+
+    /**
+     * Tears down the test fixture.
+     *
+     * Called after every test case method.
+     */
+    @AfterEach
+    public void tearDown()
+    {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    /**
+     * @return every row of a data set as text, sorted, so data sets can be compared whatever their row order.
+     */
+    private List<String> records(CovidDataset dataset)
+    {
+        ArrayList<String> records = new ArrayList<String>();
+        for (int row = 0; row < dataset.size(); row++) {
+            records.add(dataset.getRecord(row).toString());
+        }
+        Collections.sort(records);
+        return records;
+    }
+
+    @Test
+    public void testAppendRowsMatchesReload() throws IOException {
+        CovidDataset before = repository.getDataset();
+        before.getRollupCube();
+        before.getBoroughIndex();
+        assertEquals(5, before.size());
+
+        CovidDataset appended = repository.appendRows(Arrays.asList(
+            new String[] {"2022-07-01", "Camden", "-30", "-12", "14", "-10", "-36", "7", "90", "74782", "1", "364"},
+            new String[] {"2022-07-01", "Harrow", "-5", "17", "83", "-16", "-22", "7", "106", "83586", "1", "648"}));
+        CovidDataset parsed = new CovidCsvParser().parse(csvFile, 1).sortedByDay();
+
+        assertEquals(7, appended.size());
+        assertTrue(appended.isSortedByDay());
+        assertEquals(records(parsed), records(appended));
+        assertSame(appended, repository.getDataset());
+
+        CovidDataset earlier = repository.appendRows(Collections.singletonList(
+            new String[] {"2022-06-27", "Harrow", "", "", "", "", "", "", "3", "83480", "0", "647"}));
+        parsed = new CovidCsvParser().parse(csvFile, 1).sortedByDay();
+
+        assertEquals(records(parsed), records(earlier));
+        assertEquals(CovidQuery.from(parsed).boroughs("Harrow").summarize().getSum(CovidMetric.NEW_CASES),
+            CovidQuery.from(earlier).boroughs("Harrow").summarize().getSum(CovidMetric.NEW_CASES));
+        LocalDate start = LocalDate.of(2022, 6, 1);
+        LocalDate end = LocalDate.of(2022, 6, 30);
+        assertEquals(CovidQuery.from(parsed).between(start, end).count(), CovidQuery.from(earlier).between(start, end).count());
+    }
+
+    @Test
+    public void testMalformedRowsAreNotWritten() throws IOException {
+        CovidDataset before = repository.getDataset();
+        long length = csvFile.length();
+
+        assertThrows(IllegalArgumentException.class, () -> repository.appendRows(Arrays.asList(
+            new String[] {"2022-07-01", "Camden", "", "", "", "", "", "", "90", "74782", "1", "364"},
+            new String[] {"2022-02-30", "Harrow", "", "", "", "", "", "", "3", "83480", "0", "647"})));
+        assertEquals(length, csvFile.length());
+        assertSame(before, repository.getDataset());
+    }
+
+    @Test
+    public void testMalformedRowsInFileAreLeftOut() throws IOException {
+        FileWriter writer = new FileWriter(csvFile, true);
+        writer.write("2022-02-30,Harrow,,,,,,,3,83480,0,647\n"
+            + "2022-07-01,Camden,,,,,,,abc,74782,1,364\n"
+            + "2022-07-01,Harrow,,,,,,,3,83480,0,647\n");
+        writer.close();
+        CovidDataset dataset = repository.getDataset();
+
+        assertEquals(6, dataset.size());
+        assertEquals(3, CovidQuery.from(dataset).boroughs("Harrow").summarize().getSum(CovidMetric.NEW_CASES));
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes a binary snapshot of a CovidDataset, so the csv file does not
+ * have to be parsed every time the application starts.
+ *
+ * The snapshot has three parts:
+ * a header (magic number, format version, the length, modification time and CRC32
+ * checksum of the csv file it was made from, and the row, borough and metric counts),
+ * the borough dictionary (each name as a length followed by its UTF-8 bytes), and
+ * the fixed-width columns (the epoch days, the borough codes and one int column per
+ * CovidMetric). A snapshot is only used if the csv file is not newer than it and
+ * still has the same length and checksum.
+ */
+public class CovidDataSnapshot {
+
+    private static final int MAGIC = 0x43564431; // "CVD1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 44;
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    private final File snapshotFile;
+
+    /**
+     * @param snapshotFile the file the snapshot is stored in.
+     */
+    public CovidDataSnapshot(File snapshotFile) {
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Read the snapshot, if it exists and was made from the current contents of the csv file.
+     *
+     * @param csvFile the csv file the snapshot must have been made from.
+     * @param version the version number to give the data set.
+     * @return the data set stored in the snapshot, or null if there is no up-to-date snapshot.
+     * @throws IOException if the snapshot exists but can't be read.
+     */
+    public CovidDataset read(File csvFile, long version) throws IOException {
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long csvLength = buffer.getLong();
+            long csvModified = buffer.getLong();
+            long csvChecksum = buffer.getLong();
+            int size = buffer.getInt();
+            int boroughCount = buffer.getInt();
+            int metricCount = buffer.getInt();
+            if (metricCount != METRIC_COUNT || csvFile.length() != csvLength || csvFile.lastModified() > csvModified
+                    || checksum(csvFile) != csvChecksum) {
+                return null;
+            }
+
+            String[] boroughNames = new String[boroughCount];
+            for (int code = 0; code < boroughCount; code++) {
+                byte[] name = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(name);
+                boroughNames[code] = new String(name, StandardCharsets.UTF_8);
+            }
+            align(buffer);
+
+            int[] days = new int[size];
+            buffer.asIntBuffer().get(days);
+            buffer.position(buffer.position() + size * 4);
+            short[] boroughs = new short[size];
+            buffer.asShortBuffer().get(boroughs);
+            buffer.position(buffer.position() + size * 2);
+            align(buffer);
+            int[][] columns = new int[METRIC_COUNT][size];
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                buffer.asIntBuffer().get(columns[metric]);
+                buffer.position(buffer.position() + size * 4);
+            }
+            return new CovidDataset(size, days, boroughs, columns, boroughNames, version);
+        }
+        catch (RuntimeException e) {
+            // a truncated or damaged snapshot is treated as a missing one
+            throw new IOException("The snapshot " + snapshotFile + " is damaged", e);
+        }
+    }
+
+    /**
+     * Write a snapshot of a data set. The snapshot is written to a temporary file
+     * first, so a half-written snapshot is never read.
+     *
+     * @param dataset the data set to store.
+     * @param csvLength the length of the csv file the data set was parsed from.
+     * @param csvModified the modification time of the csv file the data set was parsed from.
+     * @param csvChecksum the checksum() of the csv file the data set was parsed from.
+     * @throws IOException if the snapshot can't be written.
+     */
+    public void write(CovidDataset dataset, long csvLength, long csvModified, long csvChecksum) throws IOException {
+        int size = dataset.size();
+        byte[][] names = new byte[dataset.getBoroughCount()][];
+        int dictionarySize = 0;
+        for (int code = 0; code < names.length; code++) {
+            names[code] = dataset.getBoroughName(code).getBytes(StandardCharsets.UTF_8);
+            dictionarySize += 2 + names[code].length;
+        }
+        int length = HEADER_SIZE + dictionarySize + 3 + size * 4 + size * 2 + 3 + METRIC_COUNT * size * 4;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(FORMAT_VERSION);
+        buffer.putLong(csvLength);
+        buffer.putLong(csvModified);
+        buffer.putLong(csvChecksum);
+        buffer.putInt(size);
+        buffer.putInt(names.length);
+        buffer.putInt(METRIC_COUNT);
+        for (byte[] name : names) {
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+        }
+        align(buffer);
+        buffer.asIntBuffer().put(dataset.dayColumn(), 0, size);
+        buffer.position(buffer.position() + size * 4);
+        buffer.asShortBuffer().put(dataset.boroughColumn(), 0, size);
+        buffer.position(buffer.position() + size * 2);
+        align(buffer);
+        for (CovidMetric metric : CovidMetric.values()) {
+            buffer.asIntBuffer().put(dataset.column(metric), 0, size);
+            buffer.position(buffer.position() + size * 4);
+        }
+        buffer.flip();
+
+        File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Calculate the CRC32 checksum of a file.
+     *
+     * @param file the file to check.
+     * @return the checksum of the file's contents.
+     * @throws IOException if the file can't be read.
+     */
+    public static long checksum(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return crc.getValue();
+        }
+    }
+
+    /**
+     * Move the buffer forward to the next multiple of 4 bytes, so the columns are aligned.
+     * The skipped bytes are left as they are, which is zero in a newly allocated buffer.
+     */
+    private static void align(ByteBuffer buffer) {
+        buffer.position((buffer.position() + 3) & ~3);
+    }
+}
@@ -0,0 +1,648 @@
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An immutable snapshot of the Covid London data set.
+ * A snapshot is created by the CovidDataRepository every time the csv file is
+ * (re)parsed and is shared by every window, so none of its contents can be modified.
+ *
+ * The rows are stored column by column: one int[] per CovidMetric, the dates as
+ * epoch days and the boroughs as codes into a small dictionary of borough names.
+ * CovidData objects are only created when a row is asked for, as a view for the UI.
+ *
+ * The data sets the repository hands out are sorted by date (see sortedByDay()), with the
+ * rows of each day in file order. The rows of a sorted data set are partitioned by day:
+ * the first row of every day is kept in a table, so the rows of any date range are one
+ * contiguous run of rows, found without parsing or allocating anything.
+ */
+public class CovidDataset {
+
+    private final int size;
+    private final int[] days;
+    private final short[] boroughs;
+    private final int[][] columns;
+    private final String[] boroughNames;
+    private final long version;
+
+    // Set once rows have been appended into the spare capacity of the column arrays
+    private final AtomicBoolean spareCapacityUsed = new AtomicBoolean(false);
+
+    // Indexes are built the first time they are needed
+    private volatile BoroughIndex boroughIndex;
+    private volatile BitmapIndex bitmapIndex;
+    private volatile QuantileSketches quantileSketches;
+    private volatile RollingAverages rollingAverages;
+    private volatile DailyRollup dailyRollup;
+    private volatile RollupCube rollupCube;
+    private final CumulativeSums[] cumulativeSums = new CumulativeSums[CovidMetric.values().length];
+    private final PeakIndex[] peakIndexes = new PeakIndex[CovidMetric.values().length];
+
+    // The yyyy-MM-dd label of every day between the first and last date, shared by all rows
+    private final int firstDay;
+    private final String[] dateLabels;
+    private final List<String> dates;
+
+    // [day offset]: the first row on or after each day, then size; null if the rows are not sorted by day
+    private final int[] dayStarts;
+
+    private final List<CovidData> records = new AbstractList<CovidData>() {
+        @Override
+        public CovidData get(int row) {
+            return getRecord(row);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    };
+
+    /**
+     * Create a snapshot from column arrays. The arrays are not copied, so they must
+     * not be modified afterwards; use a CovidDatasetBuilder to create them.
+     */
+    CovidDataset(int size, int[] days, short[] boroughs, int[][] columns, String[] boroughNames, long version) {
+        this.size = size;
+        this.days = days;
+        this.boroughs = boroughs;
+        this.columns = columns;
+        this.boroughNames = boroughNames;
+        this.version = version;
+
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            first = Math.min(first, days[row]);
+            last = Math.max(last, days[row]);
+        }
+        if (size == 0) {
+            first = 0;
+            last = -1;
+        }
+        firstDay = first;
+        dateLabels = new String[last - first + 1];
+        for (int row = 0; row < size; row++) {
+            int offset = days[row] - firstDay;
+            if (dateLabels[offset] == null) {
+                dateLabels[offset] = LocalDate.ofEpochDay(days[row]).toString();
+            }
+        }
+
+        dates = uniqueDates(dateLabels);
+        dayStarts = isSorted(days, 0, size) ? extendDayStarts(new int[1], 0, days, 0, size, firstDay, dateLabels.length) : null;
+    }
+
+    /**
+     * Create a snapshot whose date labels and day partitions have already been worked out.
+     */
+    private CovidDataset(int size, int[] days, short[] boroughs, int[][] columns, String[] boroughNames, long version,
+            int firstDay, String[] dateLabels, int[] dayStarts) {
+        this.size = size;
+        this.days = days;
+        this.boroughs = boroughs;
+        this.columns = columns;
+        this.boroughNames = boroughNames;
+        this.version = version;
+        this.firstDay = firstDay;
+        this.dateLabels = dateLabels;
+        this.dates = uniqueDates(dateLabels);
+        this.dayStarts = dayStarts;
+    }
+
+    /**
+     * @return true if a range of days never goes down.
+     */
+    private static boolean isSorted(int[] days, int from, int to) {
+        for (int row = from + 1; row < to; row++) {
+            if (days[row] < days[row - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Work out the day partitions of sorted rows from the partitions of their first rows.
+     * The partitions of the days before the first new row are kept as they are.
+     *
+     * @param oldStarts the partitions of the rows before fromRow, over the days from firstDay on.
+     * @param oldDayCount the number of days oldStarts covers.
+     * @param days the day column, sorted from the first row to size.
+     * @param fromRow the first row that is not covered by oldStarts.
+     * @param size the number of rows.
+     * @param firstDay the first day of the partitions.
+     * @param dayCount the number of days to cover.
+     * @return the first row on or after each day, followed by size.
+     */
+    private static int[] extendDayStarts(int[] oldStarts, int oldDayCount, int[] days, int fromRow, int size,
+            int firstDay, int dayCount) {
+        int[] starts = new int[dayCount + 1];
+        int kept = fromRow < size ? Math.min(oldDayCount, days[fromRow] - firstDay + 1) : oldDayCount;
+        System.arraycopy(oldStarts, 0, starts, 0, kept);
+        int row = fromRow;
+        for (int offset = kept; offset <= dayCount; offset++) {
+            while (row < size && days[row] < firstDay + offset) {
+                row++;
+            }
+            starts[offset] = row;
+        }
+        return starts;
+    }
+
+    /**
+     * Return this snapshot with its rows sorted by date, keeping the file order of the
+     * rows of each day. The rows are placed with a counting sort over the days, so this
+     * takes time in proportion to the number of rows and days. Indexes are not carried
+     * over, as they refer to rows by number.
+     *
+     * @return this snapshot if its rows are already sorted by date, otherwise a sorted copy.
+     */
+    public CovidDataset sortedByDay() {
+        if (dayStarts != null) {
+            return this;
+        }
+        int[] starts = new int[dateLabels.length + 1];
+        for (int row = 0; row < size; row++) {
+            starts[days[row] - firstDay + 1]++;
+        }
+        for (int offset = 0; offset < dateLabels.length; offset++) {
+            starts[offset + 1] += starts[offset];
+        }
+
+        int[] next = Arrays.copyOf(starts, dateLabels.length);
+        int[] sortedDays = new int[size];
+        short[] sortedBoroughs = new short[size];
+        int[][] sortedColumns = new int[columns.length][size];
+        for (int row = 0; row < size; row++) {
+            int target = next[days[row] - firstDay]++;
+            sortedDays[target] = days[row];
+            sortedBoroughs[target] = boroughs[row];
+            for (int metric = 0; metric < columns.length; metric++) {
+                sortedColumns[metric][target] = columns[metric][row];
+            }
+        }
+        return new CovidDataset(size, sortedDays, sortedBoroughs, sortedColumns, boroughNames, version,
+            firstDay, dateLabels, starts);
+    }
+
+    /**
+     * @return the sorted, read-only list of the labels that are not null.
+     */
+    private static List<String> uniqueDates(String[] dateLabels) {
+        ArrayList<String> uniqueDates = new ArrayList<String>();
+        for (String label : dateLabels) {
+            if (label != null) {
+                uniqueDates.add(label);
+            }
+        }
+        return Collections.unmodifiableList(uniqueDates);
+    }
+
+    /**
+     * Create a new snapshot containing the rows of this snapshot followed by the rows of another.
+     * This snapshot is not changed. The new rows are written into the spare capacity of
+     * this snapshot's column arrays when there is room, so the existing rows are not copied;
+     * this snapshot only ever reads its first size() rows, so it can't see them.
+     * A snapshot sorted by date stays sorted when the new rows are sorted and none is before
+     * its last day; otherwise the new snapshot is re-sorted and its indexes are built again.
+     *
+     * @param tail the rows to add after the rows of this snapshot.
+     * @param version the version number to give the new snapshot.
+     * @return the new snapshot.
+     */
+    CovidDataset append(CovidDataset tail, long version) {
+        int newSize = size + tail.size;
+
+        // translate the borough codes of the tail into this snapshot's dictionary
+        ArrayList<String> names = new ArrayList<String>(Arrays.asList(boroughNames));
+        int[] codes = new int[tail.boroughNames.length];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = names.indexOf(tail.boroughNames[code]);
+            if (codes[code] < 0) {
+                codes[code] = names.size();
+                names.add(tail.boroughNames[code]);
+            }
+        }
+
+        int[] newDays = days;
+        short[] newBoroughs = boroughs;
+        int[][] newColumns = columns;
+        if (newSize > days.length || !spareCapacityUsed.compareAndSet(false, true)) {
+            int capacity = Math.max(newSize, days.length * 2);
+            newDays = Arrays.copyOf(days, capacity);
+            newBoroughs = Arrays.copyOf(boroughs, capacity);
+            newColumns = new int[columns.length][];
+            for (int metric = 0; metric < columns.length; metric++) {
+                newColumns[metric] = Arrays.copyOf(columns[metric], capacity);
+            }
+        }
+        System.arraycopy(tail.days, 0, newDays, size, tail.size);
+        for (int metric = 0; metric < columns.length; metric++) {
+            System.arraycopy(tail.columns[metric], 0, newColumns[metric], size, tail.size);
+        }
+        for (int row = 0; row < tail.size; row++) {
+            newBoroughs[size + row] = (short) codes[tail.boroughs[row]];
+        }
+
+        // extend the date labels to cover the new days
+        int newFirstDay = firstDay;
+        int newLastDay = firstDay + dateLabels.length - 1;
+        if (size == 0) {
+            newFirstDay = tail.firstDay;
+            newLastDay = tail.firstDay + tail.dateLabels.length - 1;
+        }
+        else if (tail.size > 0) {
+            newFirstDay = Math.min(newFirstDay, tail.firstDay);
+            newLastDay = Math.max(newLastDay, tail.firstDay + tail.dateLabels.length - 1);
+        }
+        String[] newLabels = new String[newLastDay - newFirstDay + 1];
+        if (size > 0) {
+            System.arraycopy(dateLabels, 0, newLabels, firstDay - newFirstDay, dateLabels.length);
+        }
+        for (int offset = 0; offset < tail.dateLabels.length; offset++) {
+            if (tail.dateLabels[offset] != null) {
+                newLabels[tail.firstDay + offset - newFirstDay] = tail.dateLabels[offset];
+            }
+        }
+
+        // rows on or after the last day keep a sorted snapshot sorted; earlier rows need a full re-sort
+        int[] newDayStarts = null;
+        if (dayStarts != null && tail.dayStarts != null && (size == 0 || tail.size == 0 || tail.firstDay >= getLastDay())) {
+            newDayStarts = extendDayStarts(dayStarts, size == 0 ? 0 : dateLabels.length, newDays, size, newSize,
+                newFirstDay, newLabels.length);
+        }
+        CovidDataset appended = new CovidDataset(newSize, newDays, newBoroughs, newColumns,
+            names.toArray(new String[0]), version, newFirstDay, newLabels, newDayStarts);
+        if (dayStarts != null && newDayStarts == null) {
+            return appended.sortedByDay();
+        }
+        if (boroughIndex != null) {
+            appended.boroughIndex = boroughIndex.extend(appended, size);
+        }
+        if (bitmapIndex != null) {
+            appended.bitmapIndex = bitmapIndex.extend(appended, size);
+        }
+        if (rollingAverages != null) {
+            appended.rollingAverages = rollingAverages.extend(appended, size);
+        }
+        if (dailyRollup != null) {
+            appended.dailyRollup = dailyRollup.extend(appended, size);
+        }
+        if (rollupCube != null) {
+            appended.rollupCube = rollupCube.extend(appended, size);
+        }
+        synchronized (this) {
+            for (int metric = 0; metric < peakIndexes.length; metric++) {
+                if (peakIndexes[metric] != null) {
+                    appended.peakIndexes[metric] = peakIndexes[metric].extend(appended, size);
+                }
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * @return the cumulative sums of a metric, per borough and for London, over every day.
+     */
+    public synchronized CumulativeSums getCumulativeSums(CovidMetric metric) {
+        if (cumulativeSums[metric.ordinal()] == null) {
+            cumulativeSums[metric.ordinal()] = new CumulativeSums(this, metric);
+        }
+        return cumulativeSums[metric.ordinal()];
+    }
+
+    /**
+     * @return the cumulative sums of a metric if they have already been built, or null.
+     */
+    public synchronized CumulativeSums findCumulativeSums(CovidMetric metric) {
+        return cumulativeSums[metric.ordinal()];
+    }
+
+    /**
+     * @return the range minimum and maximum index of a metric for every borough.
+     */
+    public synchronized PeakIndex getPeakIndex(CovidMetric metric) {
+        if (peakIndexes[metric.ordinal()] == null) {
+            peakIndexes[metric.ordinal()] = PeakIndex.build(this, metric);
+        }
+        return peakIndexes[metric.ordinal()];
+    }
+
+    /**
+     * @return the index from each borough to its rows sorted by date.
+     */
+    public BoroughIndex getBoroughIndex() {
+        BoroughIndex index = boroughIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = boroughIndex;
+                if (index == null) {
+                    index = BoroughIndex.build(this);
+                    boroughIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the bitmaps of the rows of every borough and of every band of values of each metric.
+     */
+    public BitmapIndex getBitmapIndex() {
+        BitmapIndex index = bitmapIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = bitmapIndex;
+                if (index == null) {
+                    index = BitmapIndex.build(this);
+                    bitmapIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the monthly quantile sketches of every borough.
+     */
+    public QuantileSketches getQuantileSketches() {
+        QuantileSketches sketches = quantileSketches;
+        if (sketches == null) {
+            synchronized (this) {
+                sketches = quantileSketches;
+                if (sketches == null) {
+                    sketches = new QuantileSketches(this);
+                    quantileSketches = sketches;
+                }
+            }
+        }
+        return sketches;
+    }
+
+    /**
+     * @return the London-wide daily aggregates of every metric.
+     */
+    public DailyRollup getDailyRollup() {
+        DailyRollup rollup = dailyRollup;
+        if (rollup == null) {
+            synchronized (this) {
+                rollup = dailyRollup;
+                if (rollup == null) {
+                    rollup = DailyRollup.build(this);
+                    dailyRollup = rollup;
+                }
+            }
+        }
+        return rollup;
+    }
+
+    /**
+     * @return the London-wide daily aggregates if they have already been built, or null.
+     */
+    public DailyRollup findDailyRollup() {
+        return dailyRollup;
+    }
+
+    /**
+     * @return the weekly and monthly totals of every metric per borough.
+     */
+    public RollupCube getRollupCube() {
+        RollupCube cube = rollupCube;
+        if (cube == null) {
+            synchronized (this) {
+                cube = rollupCube;
+                if (cube == null) {
+                    cube = RollupCube.build(this);
+                    rollupCube = cube;
+                }
+            }
+        }
+        return cube;
+    }
+
+    /**
+     * @return the weekly and monthly totals if they have already been built, or null.
+     */
+    public RollupCube findRollupCube() {
+        return rollupCube;
+    }
+
+    /**
+     * @return the rolling averages of every row.
+     */
+    public RollingAverages getRollingAverages() {
+        RollingAverages averages = rollingAverages;
+        if (averages == null) {
+            synchronized (this) {
+                averages = rollingAverages;
+                if (averages == null) {
+                    averages = new RollingAverages(this);
+                    rollingAverages = averages;
+                }
+            }
+        }
+        return averages;
+    }
+
+    /**
+     * @return true if the rows are sorted by date, so the rows of a date range are one run of rows.
+     */
+    public boolean isSortedByDay() {
+        return dayStarts != null;
+    }
+
+    /**
+     * @return the first row that can be in a date range starting on a day: the first row on
+     * or after the day if the rows are sorted by date, or else 0.
+     */
+    public int startRow(int fromDay) {
+        if (dayStarts == null) {
+            return 0;
+        }
+        return dayStarts[(int) Math.max(0, Math.min((long) fromDay - firstDay, dateLabels.length))];
+    }
+
+    /**
+     * @return the row after the last row that can be in a date range ending on a day: the row
+     * after the last row on or before the day if the rows are sorted by date, or else size().
+     */
+    public int endRow(int toDay) {
+        if (dayStarts == null) {
+            return size;
+        }
+        return dayStarts[(int) Math.max(0, Math.min((long) toDay - firstDay + 1, dateLabels.length))];
+    }
+
+    /**
+     * @return a read-only list view of every row in the snapshot, in row order.
+     * The CovidData objects are created as the rows are read from the list.
+     */
+    public List<CovidData> getRecords() {
+        return records;
+    }
+
+    /**
+     * Create a CovidData view of a single row.
+     *
+     * @param row the index of the row.
+     * @return the row as a CovidData object.
+     */
+    public CovidData getRecord(int row) {
+        return new CovidData(getDate(row), getBorough(row),
+            columns[CovidMetric.RETAIL_RECREATION_GMR.ordinal()][row],
+            columns[CovidMetric.GROCERY_PHARMACY_GMR.ordinal()][row],
+            columns[CovidMetric.PARKS_GMR.ordinal()][row],
+            columns[CovidMetric.TRANSIT_GMR.ordinal()][row],
+            columns[CovidMetric.WORKPLACES_GMR.ordinal()][row],
+            columns[CovidMetric.RESIDENTIAL_GMR.ordinal()][row],
+            columns[CovidMetric.NEW_CASES.ordinal()][row],
+            columns[CovidMetric.TOTAL_CASES.ordinal()][row],
+            columns[CovidMetric.NEW_DEATHS.ordinal()][row],
+            columns[CovidMetric.TOTAL_DEATHS.ordinal()][row]);
+    }
+
+    /**
+     * Stream the rows in a date range, in row order. A CovidData object is only
+     * created for the rows that match, and only the day's partitions are read when the
+     * rows are sorted by date.
+     *
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @param boroughCode the dictionary code of the borough to include, or -1 for every borough.
+     * @return a stream of the matching rows.
+     */
+    public Stream<CovidData> stream(int fromDay, int toDay, int boroughCode) {
+        return StreamSupport.stream(new CovidRowSpliterator(this, startRow(fromDay), Math.max(startRow(fromDay),
+            endRow(toDay)), fromDay, toDay, boroughCode), false);
+    }
+
+    /**
+     * @return a read-only, sorted list of all unique dates in the snapshot.
+     */
+    public List<String> getDates() {
+        return dates;
+    }
+
+    /**
+     * @return the version number of this snapshot. A higher number means newer data.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of rows in the snapshot.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the earliest date in the snapshot as an epoch day, or 0 if the snapshot is empty.
+     */
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * @return the latest date in the snapshot as an epoch day, or -1 if the snapshot is empty.
+     */
+    public int getLastDay() {
+        return firstDay + dateLabels.length - 1;
+    }
+
+    /**
+     * @return the date of a row as a number of days since 1970-01-01.
+     */
+    public int getEpochDay(int row) {
+        return days[row];
+    }
+
+    /**
+     * @return the date of a row in the yyyy-MM-dd format.
+     */
+    public String getDate(int row) {
+        return dateLabels[days[row] - firstDay];
+    }
+
+    /**
+     * @return the dictionary code of the borough of a row.
+     */
+    public int getBoroughCode(int row) {
+        return boroughs[row];
+    }
+
+    /**
+     * @return the name of the borough of a row.
+     */
+    public String getBorough(int row) {
+        return boroughNames[boroughs[row]];
+    }
+
+    /**
+     * @return the value of a metric in a row.
+     */
+    public int getValue(CovidMetric metric, int row) {
+        return columns[metric.ordinal()][row];
+    }
+
+    /**
+     * @return the number of boroughs in the borough dictionary.
+     */
+    public int getBoroughCount() {
+        return boroughNames.length;
+    }
+
+    /**
+     * @return the name of the borough with the given dictionary code.
+     */
+    public String getBoroughName(int code) {
+        return boroughNames[code];
+    }
+
+    /**
+     * Find the dictionary code of a borough.
+     *
+     * @param borough the name of the borough.
+     * @return the dictionary code, or -1 if the borough is not in the data set.
+     */
+    public int findBoroughCode(String borough) {
+        for (int code = 0; code < boroughNames.length; code++) {
+            if (boroughNames[code].equals(borough)) {
+                return code;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Direct access to the epoch day column, for scans that must not allocate.
+     * The returned array must not be modified and may be longer than size().
+     */
+    int[] dayColumn() {
+        return days;
+    }
+
+    /**
+     * Direct access to the borough code column, for scans that must not allocate.
+     * The returned array must not be modified and may be longer than size().
+     */
+    short[] boroughColumn() {
+        return boroughs;
+    }
+
+    /**
+     * Direct access to a metric column, for scans that must not allocate.
+     * The returned array must not be modified and may be longer than size().
+     */
+    int[] column(CovidMetric metric) {
+        return columns[metric.ordinal()];
+    }
+}
@@ -0,0 +1,156 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Collects rows of the Covid London data set into primitive column arrays and turns
+ * them into an immutable CovidDataset.
+ * Boroughs are stored as small dictionary codes and dates as epoch days, so adding a
+ * row never creates any objects once the borough has been seen before.
+ */
+public class CovidDatasetBuilder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    private int size = 0;
+    private int[] days;
+    private short[] boroughs;
+    private int[][] columns;
+
+    private final HashMap<String, Integer> boroughCodes = new HashMap<String, Integer>();
+    private final ArrayList<String> boroughNames = new ArrayList<String>();
+
+    // Every date label seen so far, so each distinct date is only parsed once
+    private final HashMap<String, Integer> epochDays = new HashMap<String, Integer>();
+
+    public CovidDatasetBuilder() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of rows the builder has room for before it needs to grow.
+     */
+    public CovidDatasetBuilder(int capacity) {
+        capacity = Math.max(capacity, 1);
+        days = new int[capacity];
+        boroughs = new short[capacity];
+        columns = new int[METRIC_COUNT][capacity];
+    }
+
+    /**
+     * Look up the dictionary code of a borough, adding the borough to the
+     * dictionary if it has not been seen before.
+     *
+     * @param borough the name of the borough.
+     * @return the dictionary code of the borough.
+     */
+    public int boroughCode(String borough) {
+        Integer code = boroughCodes.get(borough);
+        if (code == null) {
+            if (boroughNames.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many boroughs for the borough dictionary");
+            }
+            code = boroughNames.size();
+            boroughCodes.put(borough, code);
+            boroughNames.add(borough);
+        }
+        return code;
+    }
+
+    /**
+     * Add a row to the data set. Each distinct date is parsed once; the rows after that
+     * look the date up.
+     *
+     * @param date the date of the row in the yyyy-MM-dd format.
+     * @param borough the name of the borough.
+     * @param values the value of every metric, indexed by CovidMetric ordinal.
+     */
+    public void addRow(String date, String borough, int[] values) {
+        Integer epochDay = epochDays.get(date);
+        if (epochDay == null) {
+            epochDay = (int) LocalDate.parse(date).toEpochDay();
+            epochDays.put(date, epochDay);
+        }
+        addRow(epochDay, boroughCode(borough), values);
+    }
+
+    /**
+     * Add a row to the data set.
+     *
+     * @param epochDay the date of the row as a number of days since 1970-01-01.
+     * @param boroughCode the dictionary code of the borough, from boroughCode().
+     * @param values the value of every metric, indexed by CovidMetric ordinal.
+     */
+    public void addRow(int epochDay, int boroughCode, int[] values) {
+        if (size == days.length) {
+            grow();
+        }
+        days[size] = epochDay;
+        boroughs[size] = (short) boroughCode;
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            columns[metric][size] = values[metric];
+        }
+        size++;
+    }
+
+    /**
+     * Add every row of another builder after the rows of this one, keeping their order.
+     * The other builder's borough codes are translated to this builder's dictionary,
+     * with new boroughs given codes in the order their first row is added.
+     *
+     * @param other the builder whose rows are added.
+     */
+    public void addAll(CovidDatasetBuilder other) {
+        int[] codes = new int[other.boroughNames.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = boroughCode(other.boroughNames.get(code));
+        }
+        while (days.length < size + other.size) {
+            grow();
+        }
+        System.arraycopy(other.days, 0, days, size, other.size);
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            System.arraycopy(other.columns[metric], 0, columns[metric], size, other.size);
+        }
+        for (int row = 0; row < other.size; row++) {
+            boroughs[size + row] = (short) codes[other.boroughs[row]];
+        }
+        size += other.size;
+    }
+
+    /**
+     * @return the number of rows added so far.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Create an immutable data set containing every row added so far.
+     *
+     * @param version the version number to give the data set.
+     * @return the new data set.
+     */
+    public CovidDataset build(long version) {
+        int[][] trimmedColumns = new int[METRIC_COUNT][];
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            trimmedColumns[metric] = Arrays.copyOf(columns[metric], size);
+        }
+        return new CovidDataset(size, Arrays.copyOf(days, size), Arrays.copyOf(boroughs, size),
+            trimmedColumns, boroughNames.toArray(new String[0]), version);
+    }
+
+    /**
+     * Double the capacity of every column.
+     */
+    private void grow() {
+        int capacity = days.length * 2;
+        days = Arrays.copyOf(days, capacity);
+        boroughs = Arrays.copyOf(boroughs, capacity);
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            columns[metric] = Arrays.copyOf(columns[metric], capacity);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.util.Random;
+
+/**
+ * The test class CovidDatasetTest.
+ *
+ * Checks the indexes a data set builds, and carries forward when rows are appended,
+ * against plain scans of the rows.
+ */
+public class CovidDatasetTest
+{
+    private static final int FIRST_DAY = 18300;
+
+    /**
+     * @return a data set of random rows for a few boroughs, on days from firstDay up to lastDay.
+     */
+    private CovidDataset randomDataset(Random random, int rows, int firstDay, int lastDay)
+    {
+        CovidDatasetBuilder builder = new CovidDatasetBuilder();
+        int[] values = new int[CovidMetric.values().length];
+        for (int row = 0; row < rows; row++) {
+            for (int metric = 0; metric < values.length; metric++) {
+                values[metric] = random.nextInt(201) - 100;
+            }
+            int day = firstDay + random.nextInt(lastDay - firstDay + 1);
+            builder.addRow(day, builder.boroughCode("Borough " + random.nextInt(7)), values);
+        }
+        return builder.build(1);
+    }
+
+    /**
+     * @return the summary of a borough's rows, or every row, in a date range found by
+     * reading every row.
+     */
+    private MetricSummary scanSummary(CovidDataset dataset, int boroughCode, int fromDay, int toDay)
+    {
+        MetricSummary summary = new MetricSummary(dataset);
+        for (int row = 0; row < dataset.size(); row++) {
+            int day = dataset.getEpochDay(row);
+            if (day >= fromDay && day <= toDay && (boroughCode < 0 || dataset.getBoroughCode(row) == boroughCode)) {
+                summary.add(row);
+            }
+        }
+        return summary;
+    }
+
+    private void assertSummariesEqual(MetricSummary expected, MetricSummary actual)
+    {
+        assertEquals(expected.getCount(), actual.getCount());
+        for (CovidMetric metric : CovidMetric.values()) {
+            assertEquals(expected.getSum(metric), actual.getSum(metric));
+            if (expected.getCount() > 0) {
+                assertEquals(expected.getMin(metric), actual.getMin(metric));
+                assertEquals(expected.getMax(metric), actual.getMax(metric));
+            }
+            assertEquals(expected.getVariance(metric), actual.getVariance(metric), 1e-6);
+        }
+    }
+
+    /**
+     * Compare the rollup cube and the daily rollup of a data set with a scan on random ranges.
+     */
+    private void assertRollupsMatchScan(CovidDataset dataset, Random random)
+    {
+        RollupCube cube = dataset.getRollupCube();
+        DailyRollup daily = dataset.getDailyRollup();
+        int span = dataset.getLastDay() - dataset.getFirstDay() + 11;
+        for (int i = 0; i < 100; i++) {
+            int fromDay = dataset.getFirstDay() - 5 + random.nextInt(span);
+            int toDay = fromDay + random.nextInt(span);
+            int boroughCode = random.nextInt(dataset.getBoroughCount());
+            assertSummariesEqual(scanSummary(dataset, boroughCode, fromDay, toDay),
+                cube.summarize(boroughCode, fromDay, toDay));
+            assertSummariesEqual(scanSummary(dataset, -1, fromDay, toDay), cube.summarize(null, fromDay, toDay));
+            assertSummariesEqual(scanSummary(dataset, -1, fromDay, toDay), daily.summarize(fromDay, toDay));
+        }
+    }
+
+    /**
+     * Check that the rows of every date range of a data set sorted by date are the run of
+     * rows between startRow() and endRow().
+     */
+    private void assertDayPartitionsMatchScan(CovidDataset dataset, Random random)
+    {
+        assertTrue(dataset.isSortedByDay());
+        int span = dataset.getLastDay() - dataset.getFirstDay() + 11;
+        for (int i = 0; i < 100; i++) {
+            int fromDay = dataset.getFirstDay() - 5 + random.nextInt(span);
+            int toDay = fromDay + random.nextInt(span);
+            int start = dataset.startRow(fromDay);
+            int end = Math.max(start, dataset.endRow(toDay));
+            for (int row = 0; row < dataset.size(); row++) {
+                int day = dataset.getEpochDay(row);
+                assertEquals(day >= fromDay && day <= toDay, row >= start && row < end);
+            }
+        }
+    }
+
+    /**
+     * @return the row with the largest value of a metric in a date range found by reading
+     * every row, the earliest if several are equal, or -1 if there are none.
+     */
+    private int scanMaxRow(CovidDataset dataset, CovidMetric metric, int boroughCode, int fromDay, int toDay)
+    {
+        int best = -1;
+        for (int row = 0; row < dataset.size(); row++) {
+            int day = dataset.getEpochDay(row);
+            if (day < fromDay || day > toDay || (boroughCode >= 0 && dataset.getBoroughCode(row) != boroughCode)) {
+                continue;
+            }
+            int value = dataset.getValue(metric, row);
+            if (best < 0 || value > dataset.getValue(metric, best)
+                    || (value == dataset.getValue(metric, best) && day < dataset.getEpochDay(best))) {
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Compare the peak index of a data set with a scan on random ranges.
+     */
+    private void assertPeaksMatchScan(CovidDataset dataset, Random random, int lastDay)
+    {
+        CovidMetric metric = CovidMetric.NEW_CASES;
+        PeakIndex index = dataset.getPeakIndex(metric);
+        for (int i = 0; i < 200; i++) {
+            int fromDay = FIRST_DAY + random.nextInt(lastDay - FIRST_DAY + 1);
+            int toDay = fromDay + random.nextInt(lastDay - fromDay + 1);
+            int boroughCode = random.nextInt(dataset.getBoroughCount() + 1) - 1;
+            int expected = scanMaxRow(dataset, metric, boroughCode, fromDay, toDay);
+            int actual = index.maxRow(boroughCode, fromDay, toDay);
+            if (expected < 0) {
+                assertEquals(-1, actual);
+            }
+            else {
+                assertEquals(dataset.getValue(metric, expected), dataset.getValue(metric, actual));
+                assertEquals(dataset.getEpochDay(expected), dataset.getEpochDay(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testPeakIndexMatchesScanAcrossAppends() {
+        Random random = new Random(18);
+        CovidDataset dataset = randomDataset(random, 500, FIRST_DAY, FIRST_DAY + 99);
+        assertPeaksMatchScan(dataset, random, FIRST_DAY + 99);
+
+        // the first append replaces the sparse tables, the later ones add to the segment trees
+        int lastDay = FIRST_DAY + 99;
+        for (int version = 2; version <= 5; version++) {
+            CovidDataset tail = randomDataset(random, 40 * version, lastDay + 1, lastDay + 10);
+            lastDay += 10;
+            dataset = dataset.append(tail, version);
+            assertPeaksMatchScan(dataset, random, lastDay);
+        }
+    }
+
+    @Test
+    public void testExtendedBoroughIndexMatchesBuild() {
+        Random random = new Random(8);
+        CovidDataset dataset = randomDataset(random, 300, FIRST_DAY, FIRST_DAY + 49);
+        dataset.getBoroughIndex();
+
+        // the tails overlap the earlier days, so some rows go between existing ones
+        for (int version = 2; version <= 4; version++) {
+            dataset = dataset.append(randomDataset(random, 60, FIRST_DAY + 40, FIRST_DAY + 59), version);
+            BoroughIndex expected = BoroughIndex.build(dataset);
+            BoroughIndex actual = dataset.getBoroughIndex();
+            for (int code = 0; code < dataset.getBoroughCount(); code++) {
+                assertArrayEquals(expected.rows(code), actual.rows(code));
+                assertArrayEquals(expected.days(code), actual.days(code));
+            }
+        }
+    }
+
+    @Test
+    public void testRollupsMatchScanAcrossAppends() {
+        Random random = new Random(20);
+        CovidDataset dataset = randomDataset(random, 1500, FIRST_DAY + 30, FIRST_DAY + 229);
+        assertRollupsMatchScan(dataset, random);
+
+        // rows after the last month, inside the existing weeks, and before the first month
+        dataset = dataset.append(randomDataset(random, 200, FIRST_DAY + 200, FIRST_DAY + 289), 2);
+        assertRollupsMatchScan(dataset, random);
+        dataset = dataset.append(randomDataset(random, 100, FIRST_DAY + 100, FIRST_DAY + 120), 3);
+        assertRollupsMatchScan(dataset, random);
+        dataset = dataset.append(randomDataset(random, 100, FIRST_DAY, FIRST_DAY + 40), 4);
+        assertRollupsMatchScan(dataset, random);
+    }
+
+    @Test
+    public void testDayPartitionsMatchScanAcrossAppends() {
+        Random random = new Random(23);
+        CovidDataset dataset = randomDataset(random, 1000, FIRST_DAY + 30, FIRST_DAY + 129).sortedByDay();
+        assertDayPartitionsMatchScan(dataset, random);
+
+        // sorted rows from the last day on keep the partitions, earlier rows re-sort the data set
+        dataset = dataset.append(randomDataset(random, 100, FIRST_DAY + 129, FIRST_DAY + 159).sortedByDay(), 2);
+        assertDayPartitionsMatchScan(dataset, random);
+        dataset = dataset.append(randomDataset(random, 100, FIRST_DAY, FIRST_DAY + 49), 3);
+        assertDayPartitionsMatchScan(dataset, random);
+    }
+}
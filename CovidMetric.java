@@ -0,0 +1,57 @@
+/**
+ * The numeric columns of the Covid London data set, in the order they appear in the csv file.
+ * Each metric is stored as its own int[] column inside a CovidDataset.
+ */
+public enum CovidMetric {
+    RETAIL_RECREATION_GMR("Retail Recreation GMR"),
+    GROCERY_PHARMACY_GMR("Grocery/Pharmacy GMR"),
+    PARKS_GMR("Parks GMR"),
+    TRANSIT_GMR("Transit GMR"),
+    WORKPLACES_GMR("Workplaces GMR"),
+    RESIDENTIAL_GMR("Residential GMR"),
+    NEW_CASES("New Cases"),
+    TOTAL_CASES("Total Cases"),
+    NEW_DEATHS("New Deaths"),
+    TOTAL_DEATHS("Total Deaths");
+
+    private final String label;
+
+    CovidMetric(String label) {
+        this.label = label;
+    }
+
+    /**
+     * @return the name of the metric as it is shown to the user.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return true if this metric is one of Google's mobility report (GMR) columns.
+     */
+    public boolean isGMR() {
+        return ordinal() <= RESIDENTIAL_GMR.ordinal();
+    }
+
+    /**
+     * Read the value of this metric from a single record.
+     *
+     * @param data the record to read from.
+     * @return the value of this metric in the record.
+     */
+    public int valueOf(CovidData data) {
+        switch (this) {
+            case RETAIL_RECREATION_GMR: return data.getRetailRecreationGMR();
+            case GROCERY_PHARMACY_GMR: return data.getGroceryPharmacyGMR();
+            case PARKS_GMR: return data.getParksGMR();
+            case TRANSIT_GMR: return data.getTransitGMR();
+            case WORKPLACES_GMR: return data.getWorkplacesGMR();
+            case RESIDENTIAL_GMR: return data.getResidentialGMR();
+            case NEW_CASES: return data.getNewCases();
+            case TOTAL_CASES: return data.getTotalCases();
+            case NEW_DEATHS: return data.getNewDeaths();
+            default: return data.getTotalDeaths();
+        }
+    }
+}
@@ -0,0 +1,946 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * A small query over a CovidDataset: a filter on dates, boroughs and metric values,
+ * an optional group-by, and the aggregates or columns to return.
+ *
+ * Queries are immutable; every method returns a new query, so a filtered query can be
+ * shared and given different aggregates. For example, the total new deaths per borough
+ * in January 2021:
+ *
+ *     CovidQuery.from(dataset)
+ *         .between(LocalDate.of(2021, 1, 1), LocalDate.of(2021, 1, 31))
+ *         .groupBy(CovidQuery.GroupBy.BOROUGH)
+ *         .aggregate(Aggregate.sum(CovidMetric.NEW_DEATHS))
+ *         .run();
+ *
+ * A borough filter is answered from the BoroughIndex, so only the matching rows are
+ * visited. Value ranges, such as new cases above a number and parks mobility below zero,
+ * are answered by AND-ing bitmaps from the BitmapIndex, so only the rows that pass every
+ * range are visited. Sums, averages and counts without a value filter are read from the
+ * data set's cumulative sums when they have been built, and London-wide queries are answered
+ * from the daily rollup, one row per day, when it has been built. Other queries without a value filter
+ * are answered from the weekly and monthly RollupCube when it has been built, so a long date
+ * range costs about as much as a short one. Otherwise the rows are scanned, reading only the
+ * day and borough columns and the metric columns the query refers to.
+ *
+ * Without a borough filter only the run of rows in the date range is scanned when the data
+ * set is sorted by date. Scans without a borough filter, value filter or group-by read each
+ * column as one contiguous range with ColumnKernels, which uses the Vector API when it is available.
+ * Large scans are split into ranges that are added up on the common fork/join pool and
+ * then merged. Sums are kept as exact longs, so the results are the same as a sequential
+ * scan. Predicates given to where() may be called from several threads at once.
+ */
+public class CovidQuery {
+
+    /**
+     * How the matching rows are split into groups before they are aggregated.
+     */
+    public enum GroupBy {
+        NONE, BOROUGH, DATE
+    }
+
+    private static final String LONDON = "London";
+
+    // Fewer candidate rows than this are aggregated on the calling thread
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    // The number of candidate rows each fork/join task adds up on its own
+    private static final int TASK_SIZE = 1 << 14;
+
+    private final CovidDataset dataset;
+    private final int fromDay;
+    private final int toDay;
+    private final int[] boroughCodes; // null means every borough
+    private final List<CovidMetric> filterMetrics;
+    private final List<IntPredicate> filterPredicates;
+    private final List<ValueRange> ranges;
+    private final GroupBy groupBy;
+    private final List<Aggregate> aggregates;
+    private final boolean parallel;
+    private final QueryCache cache; // null means results are not cached
+
+    private CovidQuery(CovidDataset dataset, int fromDay, int toDay, int[] boroughCodes,
+            List<CovidMetric> filterMetrics, List<IntPredicate> filterPredicates, List<ValueRange> ranges,
+            GroupBy groupBy, List<Aggregate> aggregates, boolean parallel, QueryCache cache) {
+        this.dataset = dataset;
+        this.fromDay = fromDay;
+        this.toDay = toDay;
+        this.boroughCodes = boroughCodes;
+        this.filterMetrics = filterMetrics;
+        this.filterPredicates = filterPredicates;
+        this.ranges = ranges;
+        this.groupBy = groupBy;
+        this.aggregates = aggregates;
+        this.parallel = parallel;
+        this.cache = cache;
+    }
+
+    /**
+     * @return a query over every row of a data set.
+     */
+    public static CovidQuery from(CovidDataset dataset) {
+        return new CovidQuery(dataset, Integer.MIN_VALUE, Integer.MAX_VALUE, null,
+            Collections.<CovidMetric>emptyList(), Collections.<IntPredicate>emptyList(),
+            Collections.<ValueRange>emptyList(), GroupBy.NONE, Collections.<Aggregate>emptyList(), true, null);
+    }
+
+    /**
+     * @return a query over a list of records, which are first copied into a data set.
+     */
+    public static CovidQuery from(List<CovidData> records) {
+        CovidDatasetBuilder builder = new CovidDatasetBuilder(records.size());
+        CovidMetric[] metrics = CovidMetric.values();
+        int[] values = new int[metrics.length];
+        for (CovidData data : records) {
+            for (CovidMetric metric : metrics) {
+                values[metric.ordinal()] = metric.valueOf(data);
+            }
+            builder.addRow(data.getDate(), data.getBorough(), values);
+        }
+        return from(builder.build(0));
+    }
+
+    /**
+     * @return a copy of this query that only matches rows between two epoch days, inclusive.
+     */
+    public CovidQuery between(int fromDay, int toDay) {
+        return new CovidQuery(dataset, fromDay, toDay, boroughCodes, filterMetrics, filterPredicates, ranges, groupBy,
+            aggregates, parallel, cache);
+    }
+
+    /**
+     * @return a copy of this query that only matches rows between two dates, inclusive.
+     */
+    public CovidQuery between(LocalDate startDate, LocalDate endDate) {
+        return between((int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+    }
+
+    /**
+     * @return a copy of this query that only matches rows of the given boroughs.
+     * Boroughs that are not in the data set match nothing, and a borough given twice
+     * is only matched once.
+     */
+    public CovidQuery boroughs(String... boroughs) {
+        int[] codes = new int[boroughs.length];
+        int count = 0;
+        for (String borough : boroughs) {
+            int code = dataset.findBoroughCode(borough);
+            if (code >= 0 && !contains(Arrays.copyOf(codes, count), code)) {
+                codes[count++] = code;
+            }
+        }
+        return new CovidQuery(dataset, fromDay, toDay, Arrays.copyOf(codes, count), filterMetrics,
+            filterPredicates, ranges, groupBy, aggregates, parallel, cache);
+    }
+
+    /**
+     * @return a copy of this query that only matches rows where a metric passes a test.
+     */
+    public CovidQuery where(CovidMetric metric, IntPredicate predicate) {
+        ArrayList<CovidMetric> metrics = new ArrayList<CovidMetric>(filterMetrics);
+        ArrayList<IntPredicate> predicates = new ArrayList<IntPredicate>(filterPredicates);
+        metrics.add(metric);
+        predicates.add(predicate);
+        return new CovidQuery(dataset, fromDay, toDay, boroughCodes, metrics, predicates, ranges, groupBy,
+            aggregates, parallel, cache);
+    }
+
+    /**
+     * @return a copy of this query that only matches rows where a metric is between two
+     * values, inclusive. Unlike where() with a predicate, these filters are answered from
+     * the data set's BitmapIndex and can be cached. For example, new cases above n is
+     * where(CovidMetric.NEW_CASES, n + 1, Integer.MAX_VALUE).
+     */
+    public CovidQuery where(CovidMetric metric, int min, int max) {
+        ArrayList<ValueRange> newRanges = new ArrayList<ValueRange>(ranges);
+        newRanges.add(new ValueRange(metric, min, max));
+        return new CovidQuery(dataset, fromDay, toDay, boroughCodes, filterMetrics, filterPredicates, newRanges,
+            groupBy, aggregates, parallel, cache);
+    }
+
+    /**
+     * @return a copy of this query that aggregates each group of matching rows separately.
+     */
+    public CovidQuery groupBy(GroupBy groupBy) {
+        return new CovidQuery(dataset, fromDay, toDay, boroughCodes, filterMetrics, filterPredicates, ranges, groupBy,
+            aggregates, parallel, cache);
+    }
+
+    /**
+     * @return a copy of this query that works out the given aggregates, replacing any
+     * aggregates the query already had.
+     */
+    public CovidQuery aggregate(Aggregate... aggregates) {
+        return new CovidQuery(dataset, fromDay, toDay, boroughCodes, filterMetrics, filterPredicates, ranges, groupBy,
+            Arrays.asList(aggregates.clone()), parallel, cache);
+    }
+
+    /**
+     * @return a copy of this query that does, or does not, aggregate large numbers of rows
+     * on several threads. Queries are parallel by default; the results are the same either way.
+     */
+    public CovidQuery parallel(boolean parallel) {
+        return new CovidQuery(dataset, fromDay, toDay, boroughCodes, filterMetrics, filterPredicates, ranges, groupBy,
+            aggregates, parallel, cache);
+    }
+
+    /**
+     * @return a copy of this query whose results are kept in a cache. Queries with a
+     * where() predicate are never cached, as their predicates can't be compared.
+     */
+    public CovidQuery cachedIn(QueryCache cache) {
+        return new CovidQuery(dataset, fromDay, toDay, boroughCodes, filterMetrics, filterPredicates, ranges, groupBy,
+            aggregates, parallel, cache);
+    }
+
+    /**
+     * @return the data set this query reads.
+     */
+    public CovidDataset getDataset() {
+        return dataset;
+    }
+
+    /**
+     * Work out the aggregates of the query for every group of matching rows.
+     *
+     * @return the aggregate values per group.
+     */
+    public QueryResult run() {
+        List<Object> key = cacheKey("run");
+        return key == null ? compute() : cache.get(key, this::compute);
+    }
+
+    /**
+     * Work out the aggregates of the query without looking in the cache.
+     */
+    private QueryResult compute() {
+        if (canUseCumulativeSums()) {
+            return runOnCumulativeSums();
+        }
+        DailyRollup rollup = londonRollup();
+        if (rollup != null && groupBy != GroupBy.BOROUGH) {
+            return runOnRollup(rollup);
+        }
+        RollupCube cube = rollupCube();
+        if (cube != null && groupBy != GroupBy.DATE) {
+            return runOnCube(cube);
+        }
+
+        Totals totals = accumulate(Totals::new);
+
+        int groupCount = groupCount();
+        int aggregateCount = aggregates.size();
+        ArrayList<String> groups = new ArrayList<String>();
+        ArrayList<double[]> values = new ArrayList<double[]>();
+        for (int group = 0; group < groupCount; group++) {
+            if (totals.counts[group] == 0 && groupBy != GroupBy.NONE) {
+                continue;
+            }
+            double[] groupValues = new double[aggregateCount];
+            for (int i = 0; i < aggregateCount; i++) {
+                groupValues[i] = value(aggregates.get(i).getFunction(), totals.counts[group], totals.sums[group][i],
+                    totals.minimums[group][i], totals.maximums[group][i]);
+            }
+            groups.add(groupName(group));
+            values.add(groupValues);
+        }
+        return new QueryResult(groups, aggregates, values.toArray(new double[0][]));
+    }
+
+    /**
+     * @return the number of matching rows.
+     */
+    public int count() {
+        return (int) groupBy(GroupBy.NONE).aggregate(Aggregate.count()).run().getValue(0);
+    }
+
+    /**
+     * Gather the count, sum, minimum, maximum, mean and variance of every metric over
+     * the matching rows in one pass. The group-by and aggregates of the query are ignored.
+     *
+     * @return the summary of the matching rows.
+     */
+    public MetricSummary summarize() {
+        List<Object> key = cacheKey("summarize");
+        return key == null ? computeSummary() : cache.get(key, this::computeSummary);
+    }
+
+    /**
+     * Summarise the matching rows without looking in the cache.
+     */
+    private MetricSummary computeSummary() {
+        DailyRollup rollup = londonRollup();
+        if (rollup != null) {
+            return rollup.summarize(fromDay, toDay);
+        }
+        RollupCube cube = rollupCube();
+        if (cube != null) {
+            return cube.summarize(boroughCodes, fromDay, toDay);
+        }
+        return accumulate(SummaryAccumulator::new).summary;
+    }
+
+    /**
+     * @return the matching rows as records. Without a borough filter, or with a value range
+     * filter, the rows are in the data set's order; otherwise they are grouped by borough
+     * and sorted by date.
+     */
+    public ArrayList<CovidData> rows() {
+        ArrayList<CovidData> rows = new ArrayList<CovidData>();
+        forEachRow(row -> rows.add(dataset.getRecord(row)));
+        return rows;
+    }
+
+    /**
+     * Read only some of the columns of the matching rows.
+     *
+     * @param metrics the columns to read.
+     * @return the values of each column, indexed by position in metrics and then by matching row.
+     */
+    public int[][] select(CovidMetric... metrics) {
+        int[] rows = matchingRows();
+        int[][] selected = new int[metrics.length][rows.length];
+        for (int i = 0; i < metrics.length; i++) {
+            int[] column = dataset.column(metrics[i]);
+            for (int j = 0; j < rows.length; j++) {
+                selected[i][j] = column[rows[j]];
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return the row numbers of the matching rows, in the order described by rows().
+     */
+    int[] matchingRows() {
+        int[][] rows = { new int[1024] };
+        int[] count = new int[1];
+        forEachRow(row -> {
+            if (count[0] == rows[0].length) {
+                rows[0] = Arrays.copyOf(rows[0], rows[0].length * 2);
+            }
+            rows[0][count[0]++] = row;
+        });
+        return Arrays.copyOf(rows[0], count[0]);
+    }
+
+    /**
+     * Call a consumer with the number of every matching row, in the order described by rows().
+     */
+    void forEachRow(IntConsumer consumer) {
+        Candidates candidates = candidates();
+        forEachRow(candidates, 0, candidates.size(), consumer);
+    }
+
+    /**
+     * Work out which rows could match the query without reading any metric columns.
+     * Value ranges are answered from the bitmap index. Otherwise a borough filter is
+     * answered from the borough index, with the date range found by binary searches in it;
+     * without one, the candidates are the run of rows of the date range when the data set
+     * is sorted by date, or else every row.
+     */
+    private Candidates candidates() {
+        if (!ranges.isEmpty()) {
+            int[] rows = bitmapCandidates();
+            return new Candidates(new int[][] { rows }, new int[] { 0 }, new int[] { 0, rows.length });
+        }
+        if (boroughCodes == null) {
+            int start = dataset.startRow(fromDay);
+            int end = Math.max(start, dataset.endRow(toDay));
+            return new Candidates(new int[][] { null }, new int[] { start }, new int[] { 0, end - start });
+        }
+        BoroughIndex index = dataset.getBoroughIndex();
+        int[][] rows = new int[boroughCodes.length][];
+        int[] starts = new int[boroughCodes.length];
+        int[] offsets = new int[boroughCodes.length + 1];
+        for (int i = 0; i < boroughCodes.length; i++) {
+            rows[i] = index.rows(boroughCodes[i]);
+            starts[i] = index.start(boroughCodes[i], fromDay);
+            offsets[i + 1] = offsets[i] + Math.max(0, index.end(boroughCodes[i], toDay) - starts[i]);
+        }
+        return new Candidates(rows, starts, offsets);
+    }
+
+    /**
+     * @return the rows in the date range that are in the value ranges and boroughs of the
+     * query, in row order, found by AND-ing the bitmaps of the date range, each value range
+     * and the boroughs. Each value range is only looked up among the rows that are left.
+     */
+    private int[] bitmapCandidates() {
+        BitmapIndex index = dataset.getBitmapIndex();
+        int start = dataset.startRow(fromDay);
+        RowBitmap matching = RowBitmap.range(start, Math.max(start, dataset.endRow(toDay)));
+        if (boroughCodes != null) {
+            matching = matching.and(index.boroughs(boroughCodes));
+        }
+        for (ValueRange range : ranges) {
+            matching = index.between(range.metric, range.min, range.max, matching);
+        }
+        if (!dataset.isSortedByDay()) {
+            int[] days = dataset.dayColumn();
+            matching = matching.filter(row -> days[row] >= fromDay && days[row] <= toDay);
+        }
+        return matching.toArray();
+    }
+
+    /**
+     * Call a consumer with every matching row among a range of the candidates.
+     */
+    private void forEachRow(Candidates candidates, int from, int to, IntConsumer consumer) {
+        int filterCount = filterMetrics.size();
+        int[][] filterColumns = new int[filterCount][];
+        IntPredicate[] predicates = filterPredicates.toArray(new IntPredicate[0]);
+        for (int i = 0; i < filterCount; i++) {
+            filterColumns[i] = dataset.column(filterMetrics.get(i));
+        }
+
+        int[] days = dataset.dayColumn();
+        for (int slice = 0; slice < candidates.rows.length; slice++) {
+            int sliceFrom = Math.max(from, candidates.offsets[slice]);
+            int sliceTo = Math.min(to, candidates.offsets[slice + 1]);
+            int[] sliceRows = candidates.rows[slice];
+            for (int position = sliceFrom; position < sliceTo; position++) {
+                int offset = candidates.starts[slice] + position - candidates.offsets[slice];
+                if (sliceRows == null) {
+                    if (days[offset] >= fromDay && days[offset] <= toDay
+                            && matches(offset, filterColumns, predicates)) {
+                        consumer.accept(offset);
+                    }
+                }
+                else if (matches(sliceRows[offset], filterColumns, predicates)) {
+                    consumer.accept(sliceRows[offset]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add up every candidate row with accumulators made by a supplier. Large numbers of
+     * candidates are split into ranges that are added up on the common fork/join pool.
+     */
+    private <A extends RangeAccumulator<A>> A accumulate(Supplier<A> supplier) {
+        Candidates candidates = candidates();
+        if (parallel && candidates.size() >= PARALLEL_THRESHOLD) {
+            return ForkJoinPool.commonPool().invoke(new AccumulateTask<A>(supplier, candidates, 0, candidates.size()));
+        }
+        A accumulator = supplier.get();
+        accumulator.addRange(candidates, 0, candidates.size());
+        return accumulator;
+    }
+
+    /**
+     * @return the values that identify this query's result in the cache, or null if the
+     * result should not be cached.
+     */
+    private List<Object> cacheKey(String kind) {
+        if (cache == null || !filterMetrics.isEmpty()) {
+            return null;
+        }
+        List<Integer> boroughs = null;
+        if (boroughCodes != null) {
+            boroughs = new ArrayList<Integer>();
+            for (int code : boroughCodes) {
+                boroughs.add(code);
+            }
+        }
+        return Arrays.asList(kind, dataset.getVersion(), fromDay, toDay, boroughs, ranges, groupBy, aggregates);
+    }
+
+    /**
+     * @return true if the query has a where() filter of either kind.
+     */
+    private boolean filtersValues() {
+        return !filterMetrics.isEmpty() || !ranges.isEmpty();
+    }
+
+    /**
+     * @return true if a row passes every metric filter.
+     */
+    private static boolean matches(int row, int[][] filterColumns, IntPredicate[] predicates) {
+        for (int i = 0; i < predicates.length; i++) {
+            if (!predicates[i].test(filterColumns[i][row])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if every aggregate can be read from cumulative sums that have already been built.
+     */
+    private boolean canUseCumulativeSums() {
+        if (filtersValues() || groupBy == GroupBy.DATE) {
+            return false;
+        }
+        for (Aggregate aggregate : aggregates) {
+            switch (aggregate.getFunction()) {
+                case COUNT:
+                    if (anyCumulativeSums() == null) {
+                        return false;
+                    }
+                    break;
+                case SUM:
+                case AVG:
+                    if (dataset.findCumulativeSums(aggregate.getMetric()) == null) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Work out sums, averages and counts from the cumulative sums, without reading any rows.
+     */
+    private QueryResult runOnCumulativeSums() {
+        int aggregateCount = aggregates.size();
+        CumulativeSums countSums = anyCumulativeSums();
+        ArrayList<String> groups = new ArrayList<String>();
+        ArrayList<double[]> values = new ArrayList<double[]>();
+        for (int group = 0; group < groupCount(); group++) {
+            int code = groupBy == GroupBy.BOROUGH ? group : -1;
+            if (code >= 0 && boroughCodes != null && !contains(boroughCodes, code)) {
+                continue;
+            }
+            long count = countSums == null ? 0 : countFromSums(countSums, code);
+            if (count == 0 && groupBy != GroupBy.NONE) {
+                continue;
+            }
+            double[] groupValues = new double[aggregateCount];
+            for (int i = 0; i < aggregateCount; i++) {
+                Aggregate aggregate = aggregates.get(i);
+                long sum = aggregate.getMetric() == null ? 0
+                    : sumFromSums(dataset.findCumulativeSums(aggregate.getMetric()), code);
+                groupValues[i] = value(aggregate.getFunction(), count, sum, 0, 0);
+            }
+            groups.add(groupName(group));
+            values.add(groupValues);
+        }
+        return new QueryResult(groups, aggregates, values.toArray(new double[0][]));
+    }
+
+    /**
+     * @return the data set's daily rollup if it has been built and the query covers every
+     * borough without a value filter, so it can be answered one day at a time; otherwise null.
+     */
+    private DailyRollup londonRollup() {
+        if (boroughCodes != null || filtersValues()) {
+            return null;
+        }
+        return dataset.findDailyRollup();
+    }
+
+    /**
+     * Work out the aggregates from the daily rollup, reading one row per day rather than
+     * one row per borough per day.
+     */
+    private QueryResult runOnRollup(DailyRollup rollup) {
+        int aggregateCount = aggregates.size();
+        int first = Math.max(fromDay, rollup.getFirstDay());
+        int last = Math.min(toDay, rollup.getLastDay());
+        long[] counts = new long[groupCount()];
+        long[][] sums = new long[counts.length][aggregateCount];
+        int[][] minimums = new int[counts.length][aggregateCount];
+        int[][] maximums = new int[counts.length][aggregateCount];
+        for (int group = 0; group < counts.length; group++) {
+            Arrays.fill(minimums[group], Integer.MAX_VALUE);
+            Arrays.fill(maximums[group], Integer.MIN_VALUE);
+        }
+        for (int day = first; day <= last; day++) {
+            int dayCount = rollup.getCount(day);
+            if (dayCount == 0) {
+                continue;
+            }
+            int group = groupBy == GroupBy.DATE ? day - dataset.getFirstDay() : 0;
+            counts[group] += dayCount;
+            for (int i = 0; i < aggregateCount; i++) {
+                CovidMetric metric = aggregates.get(i).getMetric();
+                if (metric != null) {
+                    sums[group][i] += rollup.getSum(metric, day);
+                    minimums[group][i] = Math.min(minimums[group][i], rollup.getMin(metric, day));
+                    maximums[group][i] = Math.max(maximums[group][i], rollup.getMax(metric, day));
+                }
+            }
+        }
+
+        ArrayList<String> groups = new ArrayList<String>();
+        ArrayList<double[]> values = new ArrayList<double[]>();
+        for (int group = 0; group < counts.length; group++) {
+            if (counts[group] == 0 && groupBy != GroupBy.NONE) {
+                continue;
+            }
+            double[] groupValues = new double[aggregateCount];
+            for (int i = 0; i < aggregateCount; i++) {
+                groupValues[i] = value(aggregates.get(i).getFunction(), counts[group], sums[group][i],
+                    minimums[group][i], maximums[group][i]);
+            }
+            groups.add(groupName(group));
+            values.add(groupValues);
+        }
+        return new QueryResult(groups, aggregates, values.toArray(new double[0][]));
+    }
+
+    /**
+     * @return the data set's weekly and monthly rollup if it has been built and the query
+     * has no value filter; otherwise null.
+     */
+    private RollupCube rollupCube() {
+        return filtersValues() ? null : dataset.findRollupCube();
+    }
+
+    /**
+     * Work out the aggregates of every borough, or of all the matching boroughs together,
+     * from the weekly and monthly rollup, reading rows only at the edges of the date range.
+     */
+    private QueryResult runOnCube(RollupCube cube) {
+        int aggregateCount = aggregates.size();
+        MetricSummary[] summaries = groupBy == GroupBy.BOROUGH ? cube.summarizeEach(fromDay, toDay)
+            : new MetricSummary[] { cube.summarize(boroughCodes, fromDay, toDay) };
+        ArrayList<String> groups = new ArrayList<String>();
+        ArrayList<double[]> values = new ArrayList<double[]>();
+        for (int group = 0; group < summaries.length; group++) {
+            MetricSummary summary = summaries[group];
+            if (groupBy == GroupBy.BOROUGH
+                    && (summary.getCount() == 0 || boroughCodes != null && !contains(boroughCodes, group))) {
+                continue;
+            }
+            double[] groupValues = new double[aggregateCount];
+            for (int i = 0; i < aggregateCount; i++) {
+                CovidMetric metric = aggregates.get(i).getMetric();
+                if (metric == null) {
+                    groupValues[i] = value(aggregates.get(i).getFunction(), summary.getCount(), 0, 0, 0);
+                }
+                else {
+                    groupValues[i] = value(aggregates.get(i).getFunction(), summary.getCount(),
+                        summary.getSum(metric), summary.getMin(metric), summary.getMax(metric));
+                }
+            }
+            groups.add(groupName(group));
+            values.add(groupValues);
+        }
+        return new QueryResult(groups, aggregates, values.toArray(new double[0][]));
+    }
+
+    /**
+     * @return the total of the matching rows of one borough, or of every matching borough when code is -1.
+     */
+    private long sumFromSums(CumulativeSums sums, int code) {
+        if (code >= 0) {
+            return sums.sum(code, fromDay, toDay);
+        }
+        if (boroughCodes == null) {
+            return sums.londonSum(fromDay, toDay);
+        }
+        long total = 0;
+        for (int boroughCode : boroughCodes) {
+            total += sums.sum(boroughCode, fromDay, toDay);
+        }
+        return total;
+    }
+
+    /**
+     * @return the number of matching rows of one borough, or of every matching borough when code is -1.
+     */
+    private long countFromSums(CumulativeSums sums, int code) {
+        if (code >= 0) {
+            return sums.count(code, fromDay, toDay);
+        }
+        if (boroughCodes == null) {
+            return sums.londonCount(fromDay, toDay);
+        }
+        long total = 0;
+        for (int boroughCode : boroughCodes) {
+            total += sums.count(boroughCode, fromDay, toDay);
+        }
+        return total;
+    }
+
+    /**
+     * @return any cumulative sums that have already been built, for counting rows, or null if there are none.
+     */
+    private CumulativeSums anyCumulativeSums() {
+        for (CovidMetric metric : CovidMetric.values()) {
+            CumulativeSums sums = dataset.findCumulativeSums(metric);
+            if (sums != null) {
+                return sums;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of an aggregate function from the running totals of a group.
+     */
+    private static double value(Aggregate.Function function, long count, long sum, int minimum, int maximum) {
+        switch (function) {
+            case COUNT: return count;
+            case SUM: return sum;
+            case AVG: return count == 0 ? 0 : (double) sum / count;
+            case MIN: return count == 0 ? 0 : minimum;
+            default: return count == 0 ? 0 : maximum;
+        }
+    }
+
+    /**
+     * @return the number of groups the rows can fall into.
+     */
+    private int groupCount() {
+        switch (groupBy) {
+            case BOROUGH: return dataset.getBoroughCount();
+            case DATE: return Math.max(0, dataset.getLastDay() - dataset.getFirstDay() + 1);
+            default: return 1;
+        }
+    }
+
+    /**
+     * @return the group a row falls into.
+     */
+    private int groupOf(int row) {
+        switch (groupBy) {
+            case BOROUGH: return dataset.getBoroughCode(row);
+            case DATE: return dataset.getEpochDay(row) - dataset.getFirstDay();
+            default: return 0;
+        }
+    }
+
+    /**
+     * @return the name of a group.
+     */
+    private String groupName(int group) {
+        switch (groupBy) {
+            case BOROUGH: return dataset.getBoroughName(group);
+            case DATE: return LocalDate.ofEpochDay(dataset.getFirstDay() + group).toString();
+            default: return LONDON;
+        }
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int candidate : values) {
+            if (candidate == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A filter that only matches rows where a metric is between two values, inclusive.
+     * Ranges are compared by value, so queries with equal ranges share cached results.
+     */
+    private static final class ValueRange {
+        final CovidMetric metric;
+        final int min;
+        final int max;
+
+        ValueRange(CovidMetric metric, int min, int max) {
+            this.metric = metric;
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof ValueRange)) {
+                return false;
+            }
+            ValueRange range = (ValueRange) other;
+            return metric == range.metric && min == range.min && max == range.max;
+        }
+
+        @Override
+        public int hashCode() {
+            return (metric.hashCode() * 31 + min) * 31 + max;
+        }
+    }
+
+    /**
+     * The rows that could match a query, as slices of row arrays laid end to end.
+     * A slice without a row array stands for a run of the data set's own rows.
+     */
+    private static final class Candidates {
+        final int[][] rows;   // per slice, the row numbers, or null for the data set's own order
+        final int[] starts;   // per slice, the position in rows of its first candidate
+        final int[] offsets;  // per slice, the number of candidates in the slices before it, then the total
+
+        Candidates(int[][] rows, int[] starts, int[] offsets) {
+            this.rows = rows;
+            this.starts = starts;
+            this.offsets = offsets;
+        }
+
+        int size() {
+            return offsets[offsets.length - 1];
+        }
+    }
+
+    /**
+     * The running count, sums, minimums and maximums of every group of matching rows.
+     * Sums are exact longs, so merging the totals of separate ranges in any order gives
+     * the same result as adding up every row in one pass.
+     */
+    private final class Totals implements IntConsumer, RangeAccumulator<Totals> {
+        final long[] counts;
+        final long[][] sums;
+        final int[][] minimums;
+        final int[][] maximums;
+        private final int[][] columns;
+
+        Totals() {
+            int groupCount = groupCount();
+            int aggregateCount = aggregates.size();
+            counts = new long[groupCount];
+            sums = new long[groupCount][aggregateCount];
+            minimums = new int[groupCount][aggregateCount];
+            maximums = new int[groupCount][aggregateCount];
+            for (int group = 0; group < groupCount; group++) {
+                Arrays.fill(minimums[group], Integer.MAX_VALUE);
+                Arrays.fill(maximums[group], Integer.MIN_VALUE);
+            }
+            columns = new int[aggregateCount][];
+            for (int i = 0; i < aggregateCount; i++) {
+                CovidMetric metric = aggregates.get(i).getMetric();
+                columns[i] = metric == null ? null : dataset.column(metric);
+            }
+        }
+
+        /**
+         * Add up a range of the candidate rows. When every row in the range only has to
+         * be checked against the date range, each column is added up with ColumnKernels.
+         */
+        @Override
+        public void addRange(Candidates candidates, int from, int to) {
+            if (boroughCodes != null || filtersValues() || groupBy != GroupBy.NONE) {
+                forEachRow(candidates, from, to, this);
+                return;
+            }
+            int[] days = dataset.dayColumn();
+            int first = candidates.starts[0] + from;
+            int last = candidates.starts[0] + to;
+            ColumnKernels kernels = ColumnKernels.getInstance();
+            long[] results = new long[4];
+            boolean counted = false;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] != null) {
+                    results[0] = 0;
+                    results[1] = 0;
+                    results[2] = Integer.MAX_VALUE;
+                    results[3] = Integer.MIN_VALUE;
+                    kernels.aggregate(days, columns[i], first, last, fromDay, toDay, results);
+                    counts[0] = results[0];
+                    sums[0][i] = results[1];
+                    minimums[0][i] = (int) results[2];
+                    maximums[0][i] = (int) results[3];
+                    counted = true;
+                }
+            }
+            if (!counted) {
+                results[0] = 0;
+                kernels.aggregate(days, days, first, last, fromDay, toDay, results);
+                counts[0] = results[0];
+            }
+        }
+
+        @Override
+        public void accept(int row) {
+            int group = groupOf(row);
+            counts[group]++;
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i] != null) {
+                    int value = columns[i][row];
+                    sums[group][i] += value;
+                    minimums[group][i] = Math.min(minimums[group][i], value);
+                    maximums[group][i] = Math.max(maximums[group][i], value);
+                }
+            }
+        }
+
+        /**
+         * Add the totals of another range of rows to these totals.
+         */
+        @Override
+        public void merge(Totals other) {
+            for (int group = 0; group < counts.length; group++) {
+                counts[group] += other.counts[group];
+                for (int i = 0; i < columns.length; i++) {
+                    sums[group][i] += other.sums[group][i];
+                    minimums[group][i] = Math.min(minimums[group][i], other.minimums[group][i]);
+                    maximums[group][i] = Math.max(maximums[group][i], other.maximums[group][i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Something that adds up ranges of candidate rows and can take in the result of
+     * another range, so a scan can be split between threads.
+     */
+    private interface RangeAccumulator<A> {
+        void addRange(Candidates candidates, int from, int to);
+
+        void merge(A other);
+    }
+
+    /**
+     * Gathers a MetricSummary of ranges of the candidate rows.
+     */
+    private final class SummaryAccumulator implements RangeAccumulator<SummaryAccumulator> {
+        final MetricSummary summary = new MetricSummary(dataset);
+
+        @Override
+        public void addRange(Candidates candidates, int from, int to) {
+            forEachRow(candidates, from, to, summary::add);
+        }
+
+        @Override
+        public void merge(SummaryAccumulator other) {
+            summary.merge(other.summary);
+        }
+    }
+
+    /**
+     * Adds up a range of the candidate rows, splitting it in half until the halves are
+     * small enough to add up on one thread. The halves are always merged first then
+     * second, so the result does not depend on which thread finishes first.
+     */
+    private final class AccumulateTask<A extends RangeAccumulator<A>> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+        private final Supplier<A> supplier;
+        private final Candidates candidates;
+        private final int from;
+        private final int to;
+
+        AccumulateTask(Supplier<A> supplier, Candidates candidates, int from, int to) {
+            this.supplier = supplier;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected A compute() {
+            if (to - from <= TASK_SIZE) {
+                A accumulator = supplier.get();
+                accumulator.addRange(candidates, from, to);
+                return accumulator;
+            }
+            int middle = (from + to) >>> 1;
+            AccumulateTask<A> second = new AccumulateTask<A>(supplier, candidates, middle, to);
+            second.fork();
+            A accumulator = new AccumulateTask<A>(supplier, candidates, from, middle).compute();
+            accumulator.merge(second.join());
+            return accumulator;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.LocalDate;
+
+/**
+ * The test class CovidQueryTest.
+ */
+public class CovidQueryTest
+{
+    private CovidDataset dataset;
+
+    /**
+     * Sets up the test fixture.
+     *
+     * Called before every test case method.
+     */
+    @BeforeEach
+    public void setUp()
+    {
+        CovidDatasetBuilder builder = new CovidDatasetBuilder();
+        builder.addRow("2021-01-01", "Camden", new int[] {-50, -10, 20, -60, -40, 15, 100, 5000, 2, 90});
+        builder.addRow("2021-01-02", "Camden", new int[] {-52, -12, 10, -62, -42, 17, 120, 5120, 3, 93});
+        builder.addRow("2021-01-01", "Barnet", new int[] {-40, -5, 30, -50, -30, 12, 200, 9000, 4, 300});
+        builder.addRow("2021-02-01", "Barnet", new int[] {-30, 0, 40, -40, -20, 10, 150, 9150, 1, 301});
+        dataset = builder.build(1);
+    }
+
+    /**
+     * @return a data set of the given number of rows with made-up values.
+     */
+    private CovidDataset largeDataset(int rows)
+    {
+        CovidDatasetBuilder builder = new CovidDatasetBuilder(rows);
+        int[] values = new int[CovidMetric.values().length];
+        for (int row = 0; row < rows; row++) {
+            for (int metric = 0; metric < values.length; metric++) {
+                values[metric] = (row * 31 + metric * 17) % 201 - 100;
+            }
+            builder.addRow(18300 + row % 1000, builder.boroughCode("Borough " + row % 33), values);
+        }
+        return builder.build(1);
+    }
+
+    @Test
+    public void testAggregates() {
+        QueryResult result = CovidQuery.from(dataset)
+            .aggregate(Aggregate.count(), Aggregate.sum(CovidMetric.NEW_CASES), Aggregate.avg(CovidMetric.PARKS_GMR),
+                Aggregate.min(CovidMetric.TRANSIT_GMR), Aggregate.max(CovidMetric.TOTAL_DEATHS))
+            .run();
+
+        assertEquals(4, result.getValue(0), 0.0);
+        assertEquals(570, result.getValue(1), 0.0);
+        assertEquals(25, result.getValue(2), 0.0);
+        assertEquals(-62, result.getValue(3), 0.0);
+        assertEquals(301, result.getValue(4), 0.0);
+    }
+
+    @Test
+    public void testFilterAndGroupBy() {
+        QueryResult result = CovidQuery.from(dataset)
+            .between(LocalDate.of(2021, 1, 1), LocalDate.of(2021, 1, 31))
+            .groupBy(CovidQuery.GroupBy.BOROUGH)
+            .aggregate(Aggregate.sum(CovidMetric.NEW_DEATHS))
+            .run();
+
+        assertEquals(2, result.getGroups().size());
+        assertEquals(5, result.getValue("Camden", Aggregate.sum(CovidMetric.NEW_DEATHS)), 0.0);
+        assertEquals(4, result.getValue("Barnet", Aggregate.sum(CovidMetric.NEW_DEATHS)), 0.0);
+        assertEquals(1, CovidQuery.from(dataset).boroughs("Barnet").where(CovidMetric.NEW_CASES, v -> v < 180).count());
+        assertEquals(0, CovidQuery.from(dataset).boroughs("Hackney").count());
+    }
+
+    @Test
+    public void testValueRanges() {
+        QueryResult result = CovidQuery.from(dataset)
+            .between(LocalDate.of(2021, 1, 1), LocalDate.of(2021, 1, 31))
+            .where(CovidMetric.NEW_CASES, 110, Integer.MAX_VALUE)
+            .aggregate(Aggregate.count(), Aggregate.sum(CovidMetric.NEW_DEATHS))
+            .run();
+
+        assertEquals(2, result.getValue(0), 0.0);
+        assertEquals(7, result.getValue(1), 0.0);
+        assertEquals(2, CovidQuery.from(dataset).where(CovidMetric.NEW_CASES, 121, Integer.MAX_VALUE).count());
+        assertEquals(2, CovidQuery.from(dataset).boroughs("Camden", "Barnet")
+            .where(CovidMetric.NEW_CASES, 110, Integer.MAX_VALUE).where(CovidMetric.PARKS_GMR, Integer.MIN_VALUE, 30).count());
+        assertEquals(0, CovidQuery.from(dataset).boroughs("Camden").where(CovidMetric.PARKS_GMR, 21, 29).count());
+        assertEquals(2, CovidQuery.from(dataset).boroughs("Camden", "Camden").count());
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        CovidQuery query = CovidQuery.from(largeDataset(300000))
+            .where(CovidMetric.NEW_CASES, v -> v != 0)
+            .groupBy(CovidQuery.GroupBy.BOROUGH)
+            .aggregate(Aggregate.count(), Aggregate.sum(CovidMetric.TRANSIT_GMR), Aggregate.avg(CovidMetric.PARKS_GMR),
+                Aggregate.min(CovidMetric.NEW_DEATHS), Aggregate.max(CovidMetric.TOTAL_CASES));
+        QueryResult sequential = query.parallel(false).run();
+        QueryResult parallel = query.parallel(true).run();
+
+        assertEquals(sequential.getGroups(), parallel.getGroups());
+        for (int group = 0; group < sequential.getGroups().size(); group++) {
+            for (int aggregate = 0; aggregate < sequential.getAggregates().size(); aggregate++) {
+                assertEquals(sequential.getValue(group, aggregate), parallel.getValue(group, aggregate), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testSummary() {
+        MetricSummary summary = CovidQuery.from(dataset).boroughs("Camden").summarize();
+
+        assertEquals(2, summary.getCount());
+        assertEquals(220, summary.getSum(CovidMetric.NEW_CASES));
+        assertEquals(100, summary.getMin(CovidMetric.NEW_CASES));
+        assertEquals(120, summary.getMax(CovidMetric.NEW_CASES));
+        assertEquals(110, summary.getMean(CovidMetric.NEW_CASES), 0.0);
+        assertEquals(100, summary.getVariance(CovidMetric.NEW_CASES), 1e-9);
+        assertEquals(0, CovidQuery.from(dataset).boroughs("Hackney").summarize().getMean(CovidMetric.NEW_CASES), 0.0);
+    }
+
+    @Test
+    public void testParallelSummaryMatchesSequential() {
+        CovidQuery query = CovidQuery.from(largeDataset(300000));
+        MetricSummary sequential = query.parallel(false).summarize();
+        MetricSummary parallel = query.parallel(true).summarize();
+
+        assertEquals(sequential.getCount(), parallel.getCount());
+        for (CovidMetric metric : CovidMetric.values()) {
+            assertEquals(sequential.getSum(metric), parallel.getSum(metric));
+            assertEquals(sequential.getMin(metric), parallel.getMin(metric));
+            assertEquals(sequential.getMax(metric), parallel.getMax(metric));
+            assertEquals(sequential.getVariance(metric), parallel.getVariance(metric), 1e-6);
+        }
+    }
+}
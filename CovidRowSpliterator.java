@@ -0,0 +1,87 @@
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * A Spliterator over the rows of a CovidDataset that match a date range and,
+ * optionally, a borough. The date and borough are checked on the primitive columns,
+ * so a CovidData object is only created for the rows that match.
+ */
+public class CovidRowSpliterator implements Spliterator<CovidData> {
+
+    // Ranges smaller than this are not split any further
+    private static final int MIN_SPLIT_SIZE = 1024;
+
+    private final CovidDataset dataset;
+    private final int fromDay;
+    private final int toDay;
+    private final int boroughCode;
+    private int row;
+    private final int end;
+
+    /**
+     * @param dataset the data set to read.
+     * @param row the first row to read.
+     * @param end the row just after the last row to read.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @param boroughCode the dictionary code of the borough to include, or -1 for every borough.
+     */
+    public CovidRowSpliterator(CovidDataset dataset, int row, int end, int fromDay, int toDay, int boroughCode) {
+        this.dataset = dataset;
+        this.row = row;
+        this.end = end;
+        this.fromDay = fromDay;
+        this.toDay = toDay;
+        this.boroughCode = boroughCode;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super CovidData> action) {
+        while (row < end) {
+            int current = row++;
+            if (matches(current)) {
+                action.accept(dataset.getRecord(current));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super CovidData> action) {
+        for (; row < end; row++) {
+            if (matches(row)) {
+                action.accept(dataset.getRecord(row));
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<CovidData> trySplit() {
+        if (end - row < MIN_SPLIT_SIZE * 2) {
+            return null;
+        }
+        int middle = (row + end) >>> 1;
+        Spliterator<CovidData> prefix = new CovidRowSpliterator(dataset, row, middle, fromDay, toDay, boroughCode);
+        row = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - row;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * @return true if the row is in the date range and borough.
+     */
+    private boolean matches(int row) {
+        int day = dataset.getEpochDay(row);
+        return day >= fromDay && day <= toDay && (boroughCode < 0 || dataset.getBoroughCode(row) == boroughCode);
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * Compares how long it takes to load the Covid London csv file with the
+ * memory-mapped CovidCsvParser and with the original opencsv path.
+ * Run the main method; the first round shows the cold-load time of each parser
+ * and the later rounds show the time once the JIT compiler has warmed up.
+ */
+public class CsvLoadBenchmark
+{
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        CovidDataLoader loader = new CovidDataLoader();
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            CovidDataset mapped = loader.loadDataset(round);
+            long mappedTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CovidDataset openCsv = loader.loadDatasetWithOpenCsv(round);
+            long openCsvTime = System.nanoTime() - start;
+
+            System.out.printf("Round %2d: mapped parser %8.2f ms, opencsv %8.2f ms (%.1fx faster, %d rows)%n",
+                round, mappedTime / 1e6, openCsvTime / 1e6, (double) openCsvTime / mappedTime, mapped.size());
+            if (mapped.size() != openCsv.size()) {
+                System.out.println("The parsers disagree on the number of rows!");
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Cumulative-sum (prefix-sum) arrays of one metric, per borough and for London as a whole.
+ * The arrays cover every day from the first to the last date of the data set, so the
+ * total of the metric over any date range is the difference of two array reads.
+ * The number of rows is counted the same way, so averages are just as cheap.
+ */
+public class CumulativeSums {
+
+    private final CovidMetric metric;
+    private final int firstDay;
+    private final int dayCount;
+
+    // [borough code][day offset + 1]: the total of all rows before the given day offset
+    private final long[][] boroughSums;
+    private final int[][] boroughCounts;
+    private final long[] londonSums;
+    private final int[] londonCounts;
+
+    /**
+     * Build the cumulative sums of a metric over every row of a data set.
+     *
+     * @param dataset the data set to add up.
+     * @param metric the metric to add up.
+     */
+    public CumulativeSums(CovidDataset dataset, CovidMetric metric) {
+        this.metric = metric;
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (int row = 0; row < dataset.size(); row++) {
+            first = Math.min(first, dataset.getEpochDay(row));
+            last = Math.max(last, dataset.getEpochDay(row));
+        }
+        firstDay = dataset.size() == 0 ? 0 : first;
+        dayCount = dataset.size() == 0 ? 0 : last - first + 1;
+
+        int boroughCount = dataset.getBoroughCount();
+        boroughSums = new long[boroughCount][dayCount + 1];
+        boroughCounts = new int[boroughCount][dayCount + 1];
+        londonSums = new long[dayCount + 1];
+        londonCounts = new int[dayCount + 1];
+
+        // add each row to the slot after its day, then turn the slots into running totals
+        int[] values = dataset.column(metric);
+        for (int row = 0; row < dataset.size(); row++) {
+            int slot = dataset.getEpochDay(row) - firstDay + 1;
+            int code = dataset.getBoroughCode(row);
+            boroughSums[code][slot] += values[row];
+            boroughCounts[code][slot]++;
+            londonSums[slot] += values[row];
+            londonCounts[slot]++;
+        }
+        for (int code = 0; code < boroughCount; code++) {
+            for (int slot = 1; slot <= dayCount; slot++) {
+                boroughSums[code][slot] += boroughSums[code][slot - 1];
+                boroughCounts[code][slot] += boroughCounts[code][slot - 1];
+            }
+        }
+        for (int slot = 1; slot <= dayCount; slot++) {
+            londonSums[slot] += londonSums[slot - 1];
+            londonCounts[slot] += londonCounts[slot - 1];
+        }
+    }
+
+    /**
+     * @return the metric these sums are of.
+     */
+    public CovidMetric getMetric() {
+        return metric;
+    }
+
+    /**
+     * @return the total of the metric for a borough over a date range.
+     */
+    public long sum(int boroughCode, int fromDay, int toDay) {
+        int from = fromSlot(fromDay);
+        int to = toSlot(toDay);
+        return from >= to ? 0 : boroughSums[boroughCode][to] - boroughSums[boroughCode][from];
+    }
+
+    /**
+     * @return the number of rows for a borough in a date range.
+     */
+    public int count(int boroughCode, int fromDay, int toDay) {
+        int from = fromSlot(fromDay);
+        int to = toSlot(toDay);
+        return from >= to ? 0 : boroughCounts[boroughCode][to] - boroughCounts[boroughCode][from];
+    }
+
+    /**
+     * @return the total of the metric for all of London over a date range.
+     */
+    public long londonSum(int fromDay, int toDay) {
+        int from = fromSlot(fromDay);
+        int to = toSlot(toDay);
+        return from >= to ? 0 : londonSums[to] - londonSums[from];
+    }
+
+    /**
+     * @return the number of rows for all of London in a date range.
+     */
+    public int londonCount(int fromDay, int toDay) {
+        int from = fromSlot(fromDay);
+        int to = toSlot(toDay);
+        return from >= to ? 0 : londonCounts[to] - londonCounts[from];
+    }
+
+    /**
+     * @return the slot holding the total of every day before fromDay.
+     */
+    private int fromSlot(int fromDay) {
+        return (int) Math.max(0, Math.min((long) fromDay - firstDay, dayCount));
+    }
+
+    /**
+     * @return the slot holding the total of every day up to and including toDay.
+     */
+    private int toSlot(int toDay) {
+        return (int) Math.max(0, Math.min((long) toDay - firstDay + 1, dayCount));
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+/**
+ * A materialised table of London-wide daily aggregates: for every day, the number of
+ * borough rows and, for every metric, their sum, sum of squares, minimum and maximum.
+ * The daily GMR means are not weighted by population, they are the plain average of the
+ * boroughs' values that day.
+ *
+ * London-level statistics read one row of this table per day instead of one row per
+ * borough per day. The table is built when a data set is published and brought up to date
+ * when rows are appended.
+ */
+public class DailyRollup {
+
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    private final int firstDay;
+    private final int[] counts;     // [day offset]
+    private final long[][] sums;    // [metric ordinal][day offset]
+    private final long[][] squares; // [metric ordinal][day offset]
+    private final int[][] minimums; // [metric ordinal][day offset]
+    private final int[][] maximums; // [metric ordinal][day offset]
+
+    private DailyRollup(int firstDay, int dayCount) {
+        this.firstDay = firstDay;
+        counts = new int[dayCount];
+        sums = new long[METRIC_COUNT][dayCount];
+        squares = new long[METRIC_COUNT][dayCount];
+        minimums = new int[METRIC_COUNT][dayCount];
+        maximums = new int[METRIC_COUNT][dayCount];
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            Arrays.fill(minimums[metric], Integer.MAX_VALUE);
+            Arrays.fill(maximums[metric], Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Build the daily rollup of every row of a data set.
+     *
+     * @param dataset the data set to roll up.
+     * @return the new rollup.
+     */
+    public static DailyRollup build(CovidDataset dataset) {
+        DailyRollup rollup = new DailyRollup(dataset.getFirstDay(),
+            Math.max(0, dataset.getLastDay() - dataset.getFirstDay() + 1));
+        rollup.addRows(dataset, 0);
+        return rollup;
+    }
+
+    /**
+     * Create the rollup of a data set that has had rows appended to the data set this rollup
+     * was built for. Only the days of the appended rows change.
+     *
+     * @param appended the data set with the appended rows.
+     * @param fromRow the first appended row.
+     * @return the rollup of the whole new data set.
+     */
+    DailyRollup extend(CovidDataset appended, int fromRow) {
+        int newFirstDay = appended.getFirstDay();
+        DailyRollup extended = new DailyRollup(newFirstDay,
+            Math.max(0, appended.getLastDay() - newFirstDay + 1));
+        int shift = firstDay - newFirstDay;
+        if (counts.length > 0) {
+            System.arraycopy(counts, 0, extended.counts, shift, counts.length);
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                System.arraycopy(sums[metric], 0, extended.sums[metric], shift, counts.length);
+                System.arraycopy(squares[metric], 0, extended.squares[metric], shift, counts.length);
+                System.arraycopy(minimums[metric], 0, extended.minimums[metric], shift, counts.length);
+                System.arraycopy(maximums[metric], 0, extended.maximums[metric], shift, counts.length);
+            }
+        }
+        extended.addRows(appended, fromRow);
+        return extended;
+    }
+
+    /**
+     * Add the rows of a data set from a row onwards to their days.
+     */
+    private void addRows(CovidDataset dataset, int fromRow) {
+        int[] days = dataset.dayColumn();
+        for (int row = fromRow; row < dataset.size(); row++) {
+            counts[days[row] - firstDay]++;
+        }
+        for (CovidMetric metric : CovidMetric.values()) {
+            int m = metric.ordinal();
+            int[] column = dataset.column(metric);
+            for (int row = fromRow; row < dataset.size(); row++) {
+                int day = days[row] - firstDay;
+                int value = column[row];
+                sums[m][day] += value;
+                squares[m][day] += (long) value * value;
+                minimums[m][day] = Math.min(minimums[m][day], value);
+                maximums[m][day] = Math.max(maximums[m][day], value);
+            }
+        }
+    }
+
+    /**
+     * @return the first day of the table as an epoch day.
+     */
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * @return the last day of the table as an epoch day.
+     */
+    public int getLastDay() {
+        return firstDay + counts.length - 1;
+    }
+
+    /**
+     * @return the number of borough rows on a day, or 0 if the day is outside the table.
+     */
+    public int getCount(int day) {
+        return contains(day) ? counts[day - firstDay] : 0;
+    }
+
+    /**
+     * @return the London-wide total of a metric on a day.
+     */
+    public long getSum(CovidMetric metric, int day) {
+        return contains(day) ? sums[metric.ordinal()][day - firstDay] : 0;
+    }
+
+    /**
+     * @return the unweighted mean of a metric over the boroughs on a day, or 0 if there are no rows that day.
+     */
+    public double getMean(CovidMetric metric, int day) {
+        int count = getCount(day);
+        return count == 0 ? 0 : (double) getSum(metric, day) / count;
+    }
+
+    /**
+     * @return the smallest borough value of a metric on a day, or 0 if there are no rows that day.
+     */
+    public int getMin(CovidMetric metric, int day) {
+        return getCount(day) == 0 ? 0 : minimums[metric.ordinal()][day - firstDay];
+    }
+
+    /**
+     * @return the largest borough value of a metric on a day, or 0 if there are no rows that day.
+     */
+    public int getMax(CovidMetric metric, int day) {
+        return getCount(day) == 0 ? 0 : maximums[metric.ordinal()][day - firstDay];
+    }
+
+    /**
+     * Summarise every metric over a date range from one row per day.
+     *
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return the summary of every borough row in the range.
+     */
+    public MetricSummary summarize(int fromDay, int toDay) {
+        MetricSummary summary = new MetricSummary();
+        int from = (int) Math.max(0, (long) fromDay - firstDay);
+        int to = (int) Math.min(counts.length - 1, (long) toDay - firstDay);
+        long[] daySums = new long[METRIC_COUNT];
+        long[] daySquares = new long[METRIC_COUNT];
+        int[] dayMinimums = new int[METRIC_COUNT];
+        int[] dayMaximums = new int[METRIC_COUNT];
+        for (int day = from; day <= to; day++) {
+            if (counts[day] == 0) {
+                continue;
+            }
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                daySums[metric] = sums[metric][day];
+                daySquares[metric] = squares[metric][day];
+                dayMinimums[metric] = minimums[metric][day];
+                dayMaximums[metric] = maximums[metric][day];
+            }
+            summary.addGroup(counts[day], daySums, daySquares, dayMinimums, dayMaximums);
+        }
+        return summary;
+    }
+
+    /**
+     * @return true if a day is inside the table.
+     */
+    private boolean contains(int day) {
+        return day >= firstDay && day - firstDay < counts.length;
+    }
+}
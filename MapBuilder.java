@@ -31,6 +31,9 @@ public class MapBuilder
     private Date endDate;
     private CovidDataLoader covidDataLoader;
     
+    //The death toll of every borough over the given period, worked out once for the whole map
+    private BoroughAggregation boroughDeaths;
+    
     //This death toll over the given period will be used to determine 
     //the hexagons' colors.
     private int totalDeaths;
@@ -46,12 +49,8 @@ public class MapBuilder
         this.startDate = startDate;
         this.endDate = endDate;
         covidDataLoader = new CovidDataLoader();
-        try{
-            totalDeaths = covidDataLoader.addedDeaths(covidDataLoader.loadPeriodData(startDate, endDate));
-        }
-        catch(java.text.ParseException e){
-            System.out.println("Dates entered are invalid.");
-        }
+        boroughDeaths = covidDataLoader.aggregateByBorough(startDate, endDate, CovidMetric.NEW_DEATHS);
+        totalDeaths = (int) boroughDeaths.getLondonTotal(CovidMetric.NEW_DEATHS);
     }
     
     /**
@@ -120,7 +119,7 @@ public class MapBuilder
      * @param name of the borough
      */
     private void setColor(Polygon hexagon, String borough) throws java.text.ParseException {
-        int boroughDeathToll = covidDataLoader.addedDeaths(covidDataLoader.loadBoroughData(borough, startDate, endDate));
+        int boroughDeathToll = (int) boroughDeaths.getTotal(borough, CovidMetric.NEW_DEATHS);
         
         if ((boroughDeathToll == 0) || (boroughDeathToll <= (totalDeaths / NUMBER_OF_BOROUGHS * 0.8))) {
             hexagon.setFill(Color.LIMEGREEN);
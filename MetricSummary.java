@@ -0,0 +1,157 @@
+import java.util.Arrays;
+
+/**
+ * The count, sum, minimum, maximum, mean and variance of every metric over a set of rows,
+ * gathered together in a single pass. Build one with CovidQuery.summarize() and read as
+ * many statistics from it as needed without looking at the rows again.
+ *
+ * Sums are exact. Variances are kept with Welford's running algorithm, and the summaries
+ * of separate ranges of rows are merged with Chan's formula, so large ranges can be
+ * summarised in parallel, and summaries can be built from pre-aggregated groups of rows
+ * such as the days of a DailyRollup.
+ */
+public class MetricSummary {
+
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    private final int[][] columns;
+    private long count = 0;
+    private final long[] sums = new long[METRIC_COUNT];
+    private final int[] minimums = new int[METRIC_COUNT];
+    private final int[] maximums = new int[METRIC_COUNT];
+    private final double[] runningMeans = new double[METRIC_COUNT];
+    private final double[] squaredDeviations = new double[METRIC_COUNT]; // Welford's M2
+
+    /**
+     * Create an empty summary of rows of a data set.
+     */
+    MetricSummary(CovidDataset dataset) {
+        columns = new int[METRIC_COUNT][];
+        for (CovidMetric metric : CovidMetric.values()) {
+            columns[metric.ordinal()] = dataset.column(metric);
+            minimums[metric.ordinal()] = Integer.MAX_VALUE;
+            maximums[metric.ordinal()] = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Create an empty summary that is only added to in groups, not row by row.
+     */
+    MetricSummary() {
+        columns = null;
+        Arrays.fill(minimums, Integer.MAX_VALUE);
+        Arrays.fill(maximums, Integer.MIN_VALUE);
+    }
+
+    /**
+     * Add a group of rows, described by their totals, to the summary.
+     *
+     * @param groupCount the number of rows in the group.
+     * @param groupSums the sum of each metric over the group, indexed by CovidMetric ordinal.
+     * @param groupSquares the sum of the squares of each metric over the group.
+     * @param groupMinimums the smallest value of each metric in the group.
+     * @param groupMaximums the largest value of each metric in the group.
+     */
+    void addGroup(long groupCount, long[] groupSums, long[] groupSquares, int[] groupMinimums, int[] groupMaximums) {
+        if (groupCount == 0) {
+            return;
+        }
+        long total = count + groupCount;
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            double groupMean = (double) groupSums[metric] / groupCount;
+            double groupDeviations = Math.max(0, groupSquares[metric] - groupMean * groupSums[metric]);
+            double delta = groupMean - runningMeans[metric];
+            squaredDeviations[metric] += groupDeviations + delta * delta * ((double) count * groupCount / total);
+            runningMeans[metric] += delta * groupCount / total;
+            sums[metric] += groupSums[metric];
+            minimums[metric] = Math.min(minimums[metric], groupMinimums[metric]);
+            maximums[metric] = Math.max(maximums[metric], groupMaximums[metric]);
+        }
+        count = total;
+    }
+
+    /**
+     * Add a row of the data set to the summary.
+     */
+    void add(int row) {
+        count++;
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            int value = columns[metric][row];
+            sums[metric] += value;
+            minimums[metric] = Math.min(minimums[metric], value);
+            maximums[metric] = Math.max(maximums[metric], value);
+            double delta = value - runningMeans[metric];
+            runningMeans[metric] += delta / count;
+            squaredDeviations[metric] += delta * (value - runningMeans[metric]);
+        }
+    }
+
+    /**
+     * Add the summary of another set of rows to this summary.
+     */
+    void merge(MetricSummary other) {
+        if (other.count == 0) {
+            return;
+        }
+        long total = count + other.count;
+        for (int metric = 0; metric < METRIC_COUNT; metric++) {
+            double delta = other.runningMeans[metric] - runningMeans[metric];
+            squaredDeviations[metric] += other.squaredDeviations[metric]
+                + delta * delta * ((double) count * other.count / total);
+            runningMeans[metric] += delta * other.count / total;
+            sums[metric] += other.sums[metric];
+            minimums[metric] = Math.min(minimums[metric], other.minimums[metric]);
+            maximums[metric] = Math.max(maximums[metric], other.maximums[metric]);
+        }
+        count = total;
+    }
+
+    /**
+     * @return the number of rows summarised.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the total of a metric.
+     */
+    public long getSum(CovidMetric metric) {
+        return sums[metric.ordinal()];
+    }
+
+    /**
+     * @return the smallest value of a metric, or 0 if there are no rows.
+     */
+    public int getMin(CovidMetric metric) {
+        return count == 0 ? 0 : minimums[metric.ordinal()];
+    }
+
+    /**
+     * @return the largest value of a metric, or 0 if there are no rows.
+     */
+    public int getMax(CovidMetric metric) {
+        return count == 0 ? 0 : maximums[metric.ordinal()];
+    }
+
+    /**
+     * @return the average of a metric, or 0 if there are no rows.
+     */
+    public double getMean(CovidMetric metric) {
+        return count == 0 ? 0 : (double) sums[metric.ordinal()] / count;
+    }
+
+    /**
+     * @return the population variance of a metric, or 0 if there are no rows.
+     */
+    public double getVariance(CovidMetric metric) {
+        return count == 0 ? 0 : squaredDeviations[metric.ordinal()] / count;
+    }
+
+    /**
+     * @return the population standard deviation of a metric, or 0 if there are no rows.
+     */
+    public double getStandardDeviation(CovidMetric metric) {
+        return Math.sqrt(getVariance(metric));
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Range minimum and maximum indexes of one metric for every borough, for finding the
+ * peak or the lowest value of the metric in any date range, and the row it was on.
+ *
+ * Each borough's values are indexed in date order, so a date range becomes a range of
+ * positions through two binary searches in the BoroughIndex. The indexes start out as
+ * sparse tables, which answer in O(1). A borough that gets new rows switches to a segment
+ * tree, which answers in O(log n). Further rows at the end of a borough are added to a copy
+ * of its tree all at once, which takes O(n) for the copy but only works out the nodes
+ * above the new rows again.
+ */
+public class PeakIndex {
+
+    private final CovidDataset dataset;
+    private final CovidMetric metric;
+    private final RangeExtremes[] extremes; // [borough code], over the values in BoroughIndex order
+    private final int[][] values;           // [borough code], the values in BoroughIndex order
+
+    private PeakIndex(CovidDataset dataset, CovidMetric metric, RangeExtremes[] extremes, int[][] values) {
+        this.dataset = dataset;
+        this.metric = metric;
+        this.extremes = extremes;
+        this.values = values;
+    }
+
+    /**
+     * Build the index of a metric for every borough of a data set.
+     *
+     * @param dataset the data set to index.
+     * @param metric the metric to index.
+     * @return the new index.
+     */
+    public static PeakIndex build(CovidDataset dataset, CovidMetric metric) {
+        int boroughCount = dataset.getBoroughCount();
+        RangeExtremes[] extremes = new RangeExtremes[boroughCount];
+        int[][] values = new int[boroughCount][];
+        for (int code = 0; code < boroughCount; code++) {
+            values[code] = boroughValues(dataset, metric, code);
+            extremes[code] = new SparseTable(values[code]);
+        }
+        return new PeakIndex(dataset, metric, extremes, values);
+    }
+
+    /**
+     * Create the index of a data set that has had rows appended to the data set this index
+     * was built for. Boroughs without new rows keep their indexes. A borough whose new rows
+     * all come after its existing rows has them added to a copy of its segment tree in one
+     * append; any other borough with new rows gets a new segment tree. Either way each
+     * changed borough's values are read and copied once.
+     *
+     * @param appended the data set with the appended rows.
+     * @param fromRow the first appended row.
+     * @return the index of the whole new data set.
+     */
+    PeakIndex extend(CovidDataset appended, int fromRow) {
+        int boroughCount = appended.getBoroughCount();
+        RangeExtremes[] newExtremes = new RangeExtremes[boroughCount];
+        int[][] newValues = new int[boroughCount][];
+        System.arraycopy(extremes, 0, newExtremes, 0, extremes.length);
+        System.arraycopy(values, 0, newValues, 0, values.length);
+
+        boolean[] changed = new boolean[boroughCount];
+        for (int row = fromRow; row < appended.size(); row++) {
+            changed[appended.getBoroughCode(row)] = true;
+        }
+        BoroughIndex index = appended.getBoroughIndex();
+        for (int code = 0; code < boroughCount; code++) {
+            if (!changed[code]) {
+                continue;
+            }
+            int[] boroughValues = boroughValues(appended, metric, code);
+            int oldLength = code < values.length ? values[code].length : 0;
+            if (newExtremes[code] instanceof SegmentTree && onlyAddedAtEnd(index.rows(code), oldLength, fromRow)) {
+                SegmentTree tree = (SegmentTree) newExtremes[code];
+                newExtremes[code] = tree.append(boroughValues, oldLength, boroughValues.length);
+            }
+            else {
+                newExtremes[code] = new SegmentTree(boroughValues);
+            }
+            newValues[code] = boroughValues;
+        }
+        return new PeakIndex(appended, metric, newExtremes, newValues);
+    }
+
+    /**
+     * @return the metric this index is of.
+     */
+    public CovidMetric getMetric() {
+        return metric;
+    }
+
+    /**
+     * Find the row with the largest value of the metric in a date range.
+     *
+     * @param boroughCode the dictionary code of the borough, or -1 for every borough.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return the row, the earliest if several are equal, or -1 if there are no rows in the range.
+     */
+    public int maxRow(int boroughCode, int fromDay, int toDay) {
+        return extremeRow(boroughCode, fromDay, toDay, true);
+    }
+
+    /**
+     * Find the row with the smallest value of the metric in a date range.
+     *
+     * @param boroughCode the dictionary code of the borough, or -1 for every borough.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return the row, the earliest if several are equal, or -1 if there are no rows in the range.
+     */
+    public int minRow(int boroughCode, int fromDay, int toDay) {
+        return extremeRow(boroughCode, fromDay, toDay, false);
+    }
+
+    /**
+     * @return the row of the largest or smallest value for one borough, or the best over every borough.
+     */
+    private int extremeRow(int boroughCode, int fromDay, int toDay, boolean largest) {
+        BoroughIndex index = dataset.getBoroughIndex();
+        int firstCode = boroughCode < 0 ? 0 : boroughCode;
+        int lastCode = boroughCode < 0 ? extremes.length - 1 : boroughCode;
+        int bestRow = -1;
+        int bestValue = 0;
+        for (int code = firstCode; code <= lastCode; code++) {
+            int from = index.start(code, fromDay);
+            int to = index.end(code, toDay);
+            int position = largest ? extremes[code].argMax(from, to) : extremes[code].argMin(from, to);
+            if (position < 0) {
+                continue;
+            }
+            int row = index.rows(code)[position];
+            int value = values[code][position];
+            if (bestRow < 0 || (largest ? value > bestValue : value < bestValue)
+                    || (value == bestValue && dataset.getEpochDay(row) < dataset.getEpochDay(bestRow))) {
+                bestRow = row;
+                bestValue = value;
+            }
+        }
+        return bestRow;
+    }
+
+    /**
+     * @return the values of a metric for a borough, in the BoroughIndex's date order.
+     */
+    private static int[] boroughValues(CovidDataset dataset, CovidMetric metric, int code) {
+        int[] rows = dataset.getBoroughIndex().rows(code);
+        int[] column = dataset.column(metric);
+        int[] boroughValues = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            boroughValues[i] = column[rows[i]];
+        }
+        return boroughValues;
+    }
+
+    /**
+     * @return true if the first oldLength of a borough's rows are all from before fromRow,
+     * so every appended row was added after them.
+     */
+    private static boolean onlyAddedAtEnd(int[] rows, int oldLength, int fromRow) {
+        for (int i = 0; i < oldLength; i++) {
+            if (rows[i] >= fromRow) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,203 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+
+/**
+ * A t-digest of new cases and of every GMR column for each borough and each calendar month,
+ * plus one for all of London per month. The quantiles of any date range are estimated by
+ * merging the digests of the months that lie completely inside the range and adding the
+ * rows of the partly covered months at either end, so no range query sorts the raw rows.
+ *
+ * Every digest has a bounded number of centroids, so the memory used depends only on the
+ * number of boroughs and months, not on the number of rows.
+ */
+public class QuantileSketches {
+
+    private final CovidDataset dataset;
+    private final CovidMetric[] metrics;
+    private final int[] monthStarts;   // the epoch day each month starts on, plus the start of the month after
+    private final TDigest[][][] boroughDigests; // [metric position][borough code][month]
+    private final TDigest[][] londonDigests;    // [metric position][month]
+
+    /**
+     * Build the digests of every borough and month of a data set.
+     *
+     * @param dataset the data set to sketch.
+     */
+    public QuantileSketches(CovidDataset dataset) {
+        this.dataset = dataset;
+        ArrayList<CovidMetric> sketched = new ArrayList<CovidMetric>();
+        for (CovidMetric metric : CovidMetric.values()) {
+            if (metric.isGMR() || metric == CovidMetric.NEW_CASES) {
+                sketched.add(metric);
+            }
+        }
+        metrics = sketched.toArray(new CovidMetric[0]);
+
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        if (dataset.size() > 0) {
+            LocalDate month = LocalDate.ofEpochDay(dataset.getFirstDay()).withDayOfMonth(1);
+            while (month.toEpochDay() <= dataset.getLastDay()) {
+                starts.add((int) month.toEpochDay());
+                month = month.plusMonths(1);
+            }
+            starts.add((int) month.toEpochDay());
+        }
+        monthStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+        int monthCount = Math.max(0, monthStarts.length - 1);
+
+        int boroughCount = dataset.getBoroughCount();
+        boroughDigests = new TDigest[metrics.length][boroughCount][monthCount];
+        londonDigests = new TDigest[metrics.length][monthCount];
+        BoroughIndex index = dataset.getBoroughIndex();
+        for (int m = 0; m < metrics.length; m++) {
+            int[] column = dataset.column(metrics[m]);
+            for (int month = 0; month < monthCount; month++) {
+                londonDigests[m][month] = new TDigest();
+            }
+            for (int code = 0; code < boroughCount; code++) {
+                // the borough's rows are sorted by day, so the month only ever moves forward
+                int[] rows = index.rows(code);
+                int[] days = index.days(code);
+                int month = 0;
+                for (int i = 0; i < rows.length; i++) {
+                    while (days[i] >= monthStarts[month + 1]) {
+                        month++;
+                    }
+                    if (boroughDigests[m][code][month] == null) {
+                        boroughDigests[m][code][month] = new TDigest();
+                    }
+                    boroughDigests[m][code][month].add(column[rows[i]]);
+                }
+                for (month = 0; month < monthCount; month++) {
+                    if (boroughDigests[m][code][month] != null) {
+                        boroughDigests[m][code][month].compress();
+                        londonDigests[m][month].add(boroughDigests[m][code][month]);
+                    }
+                }
+            }
+            // compressed here, so the digests are never changed once the sketches are shared
+            for (int month = 0; month < monthCount; month++) {
+                londonDigests[m][month].compress();
+            }
+        }
+    }
+
+    /**
+     * @return true if quantiles of a metric are sketched.
+     */
+    public boolean isSketched(CovidMetric metric) {
+        return position(metric) >= 0;
+    }
+
+    /**
+     * Build a digest of a metric over a date range for all of London.
+     *
+     * @param metric the metric, which must be new cases or a GMR column.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return a new digest of the metric's values in the range.
+     */
+    public TDigest digest(CovidMetric metric, int fromDay, int toDay) {
+        return digest(metric, -1, fromDay, toDay);
+    }
+
+    /**
+     * Build a digest of a metric over a date range for one borough, or for all of London.
+     *
+     * @param metric the metric, which must be new cases or a GMR column.
+     * @param boroughCode the dictionary code of the borough, or -1 for all of London.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return a new digest of the metric's values in the range.
+     * @throws IllegalArgumentException if the metric is not sketched.
+     */
+    public TDigest digest(CovidMetric metric, int boroughCode, int fromDay, int toDay) {
+        int m = position(metric);
+        if (m < 0) {
+            throw new IllegalArgumentException(metric + " is not sketched");
+        }
+        TDigest digest = new TDigest();
+        if (monthStarts.length == 0) {
+            return digest;
+        }
+        fromDay = Math.max(fromDay, monthStarts[0]);
+        toDay = Math.min(toDay, monthStarts[monthStarts.length - 1] - 1);
+        if (fromDay > toDay) {
+            return digest;
+        }
+
+        // the months that lie completely inside the range
+        int firstMonth = monthOf(fromDay);
+        if (monthStarts[firstMonth] != fromDay) {
+            firstMonth++;
+        }
+        int lastMonth = monthOf(toDay);
+        if (monthStarts[lastMonth + 1] - 1 != toDay) {
+            lastMonth--;
+        }
+        if (firstMonth > lastMonth) {
+            addRows(digest, m, boroughCode, fromDay, toDay);
+            return digest;
+        }
+
+        addRows(digest, m, boroughCode, fromDay, monthStarts[firstMonth] - 1);
+        for (int month = firstMonth; month <= lastMonth; month++) {
+            TDigest monthDigest = boroughCode < 0 ? londonDigests[m][month] : boroughDigests[m][boroughCode][month];
+            if (monthDigest != null) {
+                digest.add(monthDigest);
+            }
+        }
+        addRows(digest, m, boroughCode, monthStarts[lastMonth + 1], toDay);
+        return digest;
+    }
+
+    /**
+     * Add the raw values of a metric for one borough, or every borough, over a few days.
+     */
+    private void addRows(TDigest digest, int m, int boroughCode, int fromDay, int toDay) {
+        if (fromDay > toDay) {
+            return;
+        }
+        BoroughIndex index = dataset.getBoroughIndex();
+        int[] column = dataset.column(metrics[m]);
+        int firstCode = boroughCode < 0 ? 0 : boroughCode;
+        int lastCode = boroughCode < 0 ? dataset.getBoroughCount() - 1 : boroughCode;
+        for (int code = firstCode; code <= lastCode; code++) {
+            int[] rows = index.rows(code);
+            int end = index.end(code, toDay);
+            for (int i = index.start(code, fromDay); i < end; i++) {
+                digest.add(column[rows[i]]);
+            }
+        }
+    }
+
+    /**
+     * @return the month that contains a day inside the sketched range.
+     */
+    private int monthOf(int day) {
+        int low = 0;
+        int high = monthStarts.length - 2;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (monthStarts[middle] <= day) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of a metric in the sketched metrics, or -1.
+     */
+    private int position(CovidMetric metric) {
+        for (int m = 0; m < metrics.length; m++) {
+            if (metrics[m] == metric) {
+                return m;
+            }
+        }
+        return -1;
+    }
+}
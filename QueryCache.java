@@ -0,0 +1,108 @@
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, least-recently-used cache of query results, such as the summary of a date
+ * range or the totals of every borough. Keys are lists of the things that identify a
+ * query - which kind of query, the data set version, the date range, the boroughs and the
+ * metrics - so equal queries on the same data share a result.
+ *
+ * The repository invalidates its cache whenever it publishes a new version of the data
+ * set, after a reload, an append or an edit. Because keys include the data set version,
+ * a result worked out from an older version is never returned even in between.
+ */
+public class QueryCache {
+
+    private static final int DEFAULT_CAPACITY = 128;
+
+    private final LinkedHashMap<List<Object>, Object> entries;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    public QueryCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the largest number of results kept; the least recently used is dropped first.
+     */
+    public QueryCache(int capacity) {
+        entries = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Return the cached result of a query, working it out and caching it first if needed.
+     * The result is worked out without holding the cache's lock, so two threads asking for
+     * the same missing result may both work it out.
+     *
+     * @param key the values that identify the query.
+     * @param query works out the result when it is not cached.
+     * @return the result of the query.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(List<Object> key, Supplier<T> query) {
+        synchronized (this) {
+            Object result = entries.get(key);
+            if (result != null) {
+                hits++;
+                return (T) result;
+            }
+            misses++;
+        }
+        T result = query.get();
+        synchronized (this) {
+            entries.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Drop every cached result, because the data they were worked out from has changed.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        invalidations++;
+    }
+
+    /**
+     * @return the number of times a result was found in the cache.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of times a result had to be worked out.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of times the cache was invalidated.
+     */
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * @return the number of results currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache[" + entries.size() + " results, " + hits + " hits, " + misses + " misses, "
+            + invalidations + " invalidations]";
+    }
+}
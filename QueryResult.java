@@ -0,0 +1,63 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a CovidQuery: one row of aggregate values per group.
+ * Without a group-by there is a single group called "London". Grouped by borough or
+ * date, there is one group per borough or date that has matching rows, named after
+ * the borough or the yyyy-MM-dd date.
+ */
+public class QueryResult {
+
+    private final List<String> groups;
+    private final List<Aggregate> aggregates;
+    private final double[][] values; // [group][aggregate]
+
+    QueryResult(List<String> groups, List<Aggregate> aggregates, double[][] values) {
+        this.groups = Collections.unmodifiableList(groups);
+        this.aggregates = Collections.unmodifiableList(aggregates);
+        this.values = values;
+    }
+
+    /**
+     * @return the names of the groups, in order.
+     */
+    public List<String> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return the aggregates that were worked out, in order.
+     */
+    public List<Aggregate> getAggregates() {
+        return aggregates;
+    }
+
+    /**
+     * @return the value of an aggregate for a group. Averages, minimums and maximums
+     * of a group with no rows are 0.
+     */
+    public double getValue(int group, int aggregate) {
+        return values[group][aggregate];
+    }
+
+    /**
+     * @return the value of an aggregate for a named group, or 0 if the group has no rows.
+     * @throws IllegalArgumentException if the aggregate was not part of the query.
+     */
+    public double getValue(String group, Aggregate aggregate) {
+        int groupIndex = groups.indexOf(group);
+        int aggregateIndex = aggregates.indexOf(aggregate);
+        if (aggregateIndex < 0) {
+            throw new IllegalArgumentException(aggregate + " was not part of this query");
+        }
+        return groupIndex < 0 ? 0 : values[groupIndex][aggregateIndex];
+    }
+
+    /**
+     * @return the value of an aggregate in the first group, for queries without a group-by.
+     */
+    public double getValue(int aggregate) {
+        return values.length == 0 ? 0 : values[0][aggregate];
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * An index over a fixed sequence of values that finds the position of the smallest or
+ * largest value in any range of positions without looking at every value in the range.
+ */
+public interface RangeExtremes {
+
+    /**
+     * @return the position of the smallest value in positions from (inclusive) to to
+     * (exclusive), the earliest if several are equal, or -1 if the range is empty.
+     */
+    int argMin(int from, int to);
+
+    /**
+     * @return the position of the largest value in positions from (inclusive) to to
+     * (exclusive), the earliest if several are equal, or -1 if the range is empty.
+     */
+    int argMax(int from, int to);
+}
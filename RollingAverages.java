@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rolling averages of metrics for every row of a data set: the average of the metric over
+ * the rows of the same borough in the window of days that ends on the row's date.
+ * A window of 7 days ending on the 10th covers the 4th to the 10th.
+ *
+ * Each metric and window is worked out the first time it is asked for, with one sliding
+ * pass over each borough's rows in date order, so it costs O(n) however wide the window is.
+ * When rows are appended to the data set only the windows that contain a new row are
+ * worked out again.
+ */
+public class RollingAverages {
+
+    /**
+     * The window lengths, in days, shown to the user.
+     */
+    public static final int[] WINDOWS = { 7, 14, 28 };
+
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    private final CovidDataset dataset;
+    // [window * METRIC_COUNT + metric ordinal] -> the rolling average of every row
+    private final Map<Integer, double[]> averages = new HashMap<Integer, double[]>();
+
+    /**
+     * @param dataset the data set whose rows are averaged.
+     */
+    public RollingAverages(CovidDataset dataset) {
+        this.dataset = dataset;
+    }
+
+    /**
+     * @return the rolling average of a metric for one row.
+     */
+    public double average(CovidMetric metric, int windowDays, int row) {
+        return averages(metric, windowDays)[row];
+    }
+
+    /**
+     * @return the rolling average of a metric for every row, indexed by row. The array
+     * must not be modified.
+     */
+    public synchronized double[] averages(CovidMetric metric, int windowDays) {
+        if (windowDays < 1) {
+            throw new IllegalArgumentException("A rolling window must be at least one day long");
+        }
+        int key = windowDays * METRIC_COUNT + metric.ordinal();
+        double[] rowAverages = averages.get(key);
+        if (rowAverages == null) {
+            rowAverages = slide(metric, windowDays);
+            averages.put(key, rowAverages);
+        }
+        return rowAverages;
+    }
+
+    /**
+     * Create the rolling averages of a data set that has had rows appended to the data set
+     * these averages are for. Only the averages already worked out are carried over, and of
+     * those only the windows that contain an appended row are worked out again.
+     *
+     * @param appended the data set with the appended rows.
+     * @param fromRow the first appended row.
+     * @return the rolling averages of the whole new data set.
+     */
+    synchronized RollingAverages extend(CovidDataset appended, int fromRow) {
+        RollingAverages extended = new RollingAverages(appended);
+        BoroughIndex index = appended.getBoroughIndex();
+        for (Map.Entry<Integer, double[]> entry : averages.entrySet()) {
+            int windowDays = entry.getKey() / METRIC_COUNT;
+            int[] column = appended.column(CovidMetric.values()[entry.getKey() % METRIC_COUNT]);
+            double[] rowAverages = Arrays.copyOf(entry.getValue(), appended.size());
+            for (int row = fromRow; row < appended.size(); row++) {
+                // the windows that contain the new row end on its day or up to windowDays - 1 days later
+                int code = appended.getBoroughCode(row);
+                int day = appended.getEpochDay(row);
+                int[] rows = index.rows(code);
+                int end = index.end(code, day + windowDays - 1);
+                for (int i = index.start(code, day); i < end; i++) {
+                    rowAverages[rows[i]] = windowAverage(index, column, code, index.days(code)[i], windowDays);
+                }
+            }
+            extended.averages.put(entry.getKey(), rowAverages);
+        }
+        return extended;
+    }
+
+    /**
+     * Work out the rolling average of every row with a sliding window over each borough's
+     * rows in date order. Rows on the same day share the same window.
+     */
+    private double[] slide(CovidMetric metric, int windowDays) {
+        double[] rowAverages = new double[dataset.size()];
+        int[] column = dataset.column(metric);
+        BoroughIndex index = dataset.getBoroughIndex();
+        for (int code = 0; code < dataset.getBoroughCount(); code++) {
+            int[] rows = index.rows(code);
+            int[] days = index.days(code);
+            long sum = 0;
+            int left = 0;
+            int right = 0;
+            while (right < rows.length) {
+                // take in every row of the next day, then drop the rows that fell out of the window
+                int day = days[right];
+                int dayStart = right;
+                while (right < rows.length && days[right] == day) {
+                    sum += column[rows[right]];
+                    right++;
+                }
+                while (days[left] <= day - windowDays) {
+                    sum -= column[rows[left]];
+                    left++;
+                }
+                double average = (double) sum / (right - left);
+                for (int i = dayStart; i < right; i++) {
+                    rowAverages[rows[i]] = average;
+                }
+            }
+        }
+        return rowAverages;
+    }
+
+    /**
+     * @return the average of a metric over a borough's rows in the window ending on a day.
+     */
+    private static double windowAverage(BoroughIndex index, int[] column, int code, int day, int windowDays) {
+        int[] rows = index.rows(code);
+        int start = index.start(code, day - windowDays + 1);
+        int end = index.end(code, day);
+        long sum = 0;
+        for (int i = start; i < end; i++) {
+            sum += column[rows[i]];
+        }
+        return (double) sum / (end - start);
+    }
+}
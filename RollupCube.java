@@ -0,0 +1,391 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * Pre-aggregated totals of every metric per borough for every ISO week (Monday to Sunday)
+ * and every calendar month: the number of rows and, for each metric, the sum, sum of
+ * squares, minimum and maximum.
+ *
+ * A date range is answered from the whole months it covers, then the whole weeks left
+ * over at its ends, and only the remaining days at the very edges are read row by row
+ * from the borough index. Summarising the full three years of a borough reads about
+ * forty buckets and a handful of rows, about as much as summarising a single week.
+ */
+public class RollupCube {
+
+    private static final int METRIC_COUNT = CovidMetric.values().length;
+
+    // The kinds of part a date range is split into
+    private static final int DAYS = 0;
+    private static final int WEEKS = 1;
+    private static final int MONTHS = 2;
+
+    private final CovidDataset dataset;
+    private final int[][] columns; // [metric ordinal][row]
+    private final Buckets weeks;
+    private final Buckets months;
+
+    private RollupCube(CovidDataset dataset, Buckets weeks, Buckets months) {
+        this.dataset = dataset;
+        this.weeks = weeks;
+        columns = new int[METRIC_COUNT][];
+        for (CovidMetric metric : CovidMetric.values()) {
+            columns[metric.ordinal()] = dataset.column(metric);
+        }
+        this.months = months;
+    }
+
+    /**
+     * Build the weekly and monthly totals of every row of a data set.
+     *
+     * @param dataset the data set to roll up.
+     * @return the new cube.
+     */
+    public static RollupCube build(CovidDataset dataset) {
+        RollupCube cube = new RollupCube(dataset,
+            new Buckets(weekStarts(dataset), dataset.getBoroughCount()),
+            new Buckets(monthStarts(dataset), dataset.getBoroughCount()));
+        cube.addRows(0);
+        return cube;
+    }
+
+    /**
+     * Create the cube of a data set that has had rows appended to the data set this cube
+     * was built for. Only the buckets of the appended rows change.
+     *
+     * @param appended the data set with the appended rows.
+     * @param fromRow the first appended row.
+     * @return the cube of the whole new data set.
+     */
+    RollupCube extend(CovidDataset appended, int fromRow) {
+        if (dataset.size() == 0) {
+            return build(appended);
+        }
+        RollupCube extended = new RollupCube(appended,
+            weeks.copyInto(weekStarts(appended), appended.getBoroughCount()),
+            months.copyInto(monthStarts(appended), appended.getBoroughCount()));
+        extended.addRows(fromRow);
+        return extended;
+    }
+
+    /**
+     * Add the rows of the data set from a row onwards to their week and month.
+     */
+    private void addRows(int fromRow) {
+        int[] days = dataset.dayColumn();
+        short[] boroughs = dataset.boroughColumn();
+        for (int row = fromRow; row < dataset.size(); row++) {
+            weeks.add(boroughs[row], weeks.bucketOf(days[row]), columns, row);
+            months.add(boroughs[row], months.bucketOf(days[row]), columns, row);
+        }
+    }
+
+    /**
+     * Summarise every metric of one borough over a date range.
+     *
+     * @param boroughCode the dictionary code of the borough.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return the summary of the borough's rows in the range.
+     */
+    public MetricSummary summarize(int boroughCode, int fromDay, int toDay) {
+        return summarize(new int[] { boroughCode }, fromDay, toDay);
+    }
+
+    /**
+     * Summarise every metric of several boroughs together over a date range.
+     *
+     * @param boroughCodes the dictionary codes of the boroughs, or null for every borough.
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return the summary of the boroughs' rows in the range.
+     */
+    public MetricSummary summarize(int[] boroughCodes, int fromDay, int toDay) {
+        int[] plan = plan(fromDay, toDay);
+        Totals totals = new Totals();
+        if (boroughCodes == null) {
+            for (int code = 0; code < dataset.getBoroughCount(); code++) {
+                addTo(totals, code, plan);
+            }
+        }
+        else {
+            for (int code : boroughCodes) {
+                addTo(totals, code, plan);
+            }
+        }
+        MetricSummary summary = new MetricSummary();
+        summary.addGroup(totals.count, totals.sums, totals.squares, totals.minimums, totals.maximums);
+        return summary;
+    }
+
+    /**
+     * Summarise every metric of each borough separately over a date range.
+     *
+     * @param fromDay the first epoch day to include.
+     * @param toDay the last epoch day to include.
+     * @return the summary of each borough's rows in the range, indexed by borough code.
+     */
+    public MetricSummary[] summarizeEach(int fromDay, int toDay) {
+        int[] plan = plan(fromDay, toDay);
+        MetricSummary[] summaries = new MetricSummary[dataset.getBoroughCount()];
+        for (int code = 0; code < summaries.length; code++) {
+            Totals totals = new Totals();
+            addTo(totals, code, plan);
+            summaries[code] = new MetricSummary();
+            summaries[code].addGroup(totals.count, totals.sums, totals.squares, totals.minimums, totals.maximums);
+        }
+        return summaries;
+    }
+
+    /**
+     * Split a date range into whole months first, then whole weeks, then single days.
+     * A week that runs into a month that can be taken whole is read as days instead,
+     * so the month is not lost. The plan is the same for every borough, so it is worked
+     * out once per range.
+     *
+     * @return the parts of the range as (kind, first, end) triples: for MONTHS and WEEKS
+     * a run of buckets from first up to but not including end, and for DAYS a run of days
+     * from first to end inclusive.
+     */
+    private int[] plan(int fromDay, int toDay) {
+        int[] plan = new int[12];
+        int length = 0;
+        int day = Math.max(fromDay, dataset.getFirstDay());
+        int last = Math.min(toDay, dataset.getLastDay());
+        while (day <= last) {
+            int kind;
+            int first;
+            int end;
+            int month = months.bucketStartingOn(day);
+            int week = weeks.bucketStartingOn(day);
+            if (month >= 0 && months.lastDay(month) <= last) {
+                kind = MONTHS;
+                first = month;
+                end = month + 1;
+                day = months.lastDay(month) + 1;
+            }
+            else if (week >= 0 && weeks.lastDay(week) <= last
+                    && !monthStartsWithin(day + 1, weeks.lastDay(week), last)) {
+                kind = WEEKS;
+                first = week;
+                end = week + 1;
+                day = weeks.lastDay(week) + 1;
+            }
+            else {
+                kind = DAYS;
+                first = day;
+                end = Math.min(last, Math.min(weeks.nextStart(day), months.nextStart(day)) - 1);
+                day = end + 1;
+            }
+            if (length > 0 && plan[length - 3] == kind) {
+                plan[length - 1] = end;
+            }
+            else {
+                if (length == plan.length) {
+                    plan = Arrays.copyOf(plan, length * 2);
+                }
+                plan[length++] = kind;
+                plan[length++] = first;
+                plan[length++] = end;
+            }
+        }
+        return Arrays.copyOf(plan, length);
+    }
+
+    /**
+     * Add a borough's rows in the parts of a plan to running totals.
+     */
+    private void addTo(Totals totals, int boroughCode, int[] plan) {
+        for (int part = 0; part < plan.length; part += 3) {
+            switch (plan[part]) {
+                case MONTHS:
+                    for (int bucket = plan[part + 1]; bucket < plan[part + 2]; bucket++) {
+                        months.addTo(totals, boroughCode, bucket);
+                    }
+                    break;
+                case WEEKS:
+                    for (int bucket = plan[part + 1]; bucket < plan[part + 2]; bucket++) {
+                        weeks.addTo(totals, boroughCode, bucket);
+                    }
+                    break;
+                default:
+                    addRows(totals, boroughCode, plan[part + 1], plan[part + 2]);
+            }
+        }
+    }
+
+    /**
+     * @return true if a month that ends by the last day starts between two days.
+     */
+    private boolean monthStartsWithin(int fromDay, int toDay, int last) {
+        int start = months.nextStart(fromDay - 1);
+        return start <= toDay && months.lastDay(months.bucketStartingOn(start)) <= last;
+    }
+
+    /**
+     * Add a borough's rows between two days to running totals, one row at a time.
+     */
+    private void addRows(Totals totals, int boroughCode, int fromDay, int toDay) {
+        BoroughIndex index = dataset.getBoroughIndex();
+        int[] rows = index.rows(boroughCode);
+        int end = index.end(boroughCode, toDay);
+        for (int position = index.start(boroughCode, fromDay); position < end; position++) {
+            int row = rows[position];
+            totals.count++;
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                int value = columns[metric][row];
+                totals.sums[metric] += value;
+                totals.squares[metric] += (long) value * value;
+                totals.minimums[metric] = Math.min(totals.minimums[metric], value);
+                totals.maximums[metric] = Math.max(totals.maximums[metric], value);
+            }
+        }
+    }
+
+    /**
+     * @return the first day of every ISO week of a data set, followed by the day after the last week.
+     */
+    private static int[] weekStarts(CovidDataset dataset) {
+        int first = Math.floorDiv(dataset.getFirstDay() + 3, 7);
+        int last = Math.floorDiv(Math.max(dataset.getFirstDay(), dataset.getLastDay()) + 3, 7);
+        int[] starts = new int[last - first + 2];
+        for (int week = 0; week < starts.length; week++) {
+            starts[week] = (first + week) * 7 - 3;
+        }
+        return starts;
+    }
+
+    /**
+     * @return the first day of every month of a data set, followed by the day after the last month.
+     */
+    private static int[] monthStarts(CovidDataset dataset) {
+        LocalDate first = LocalDate.ofEpochDay(dataset.getFirstDay()).withDayOfMonth(1);
+        LocalDate last = LocalDate.ofEpochDay(Math.max(dataset.getFirstDay(), dataset.getLastDay())).withDayOfMonth(1);
+        int[] starts = new int[(int) (last.toEpochDay() - first.toEpochDay()) / 28 + 2];
+        int count = 0;
+        for (LocalDate month = first; !month.isAfter(last.plusMonths(1)); month = month.plusMonths(1)) {
+            starts[count++] = (int) month.toEpochDay();
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * The totals of every borough in a run of consecutive buckets of days.
+     * Bucket i covers the days from starts[i] up to the day before starts[i + 1].
+     */
+    private static final class Buckets {
+        final int[] starts;
+        final int[][] counts;       // [borough code][bucket]
+        final long[][][] sums;      // [borough code][bucket][metric ordinal]
+        final long[][][] squares;   // [borough code][bucket][metric ordinal]
+        final int[][][] minimums;   // [borough code][bucket][metric ordinal]
+        final int[][][] maximums;   // [borough code][bucket][metric ordinal]
+
+        Buckets(int[] starts, int boroughCount) {
+            this.starts = starts;
+            int bucketCount = starts.length - 1;
+            counts = new int[boroughCount][bucketCount];
+            sums = new long[boroughCount][bucketCount][METRIC_COUNT];
+            squares = new long[boroughCount][bucketCount][METRIC_COUNT];
+            minimums = new int[boroughCount][bucketCount][METRIC_COUNT];
+            maximums = new int[boroughCount][bucketCount][METRIC_COUNT];
+            for (int code = 0; code < boroughCount; code++) {
+                for (int bucket = 0; bucket < bucketCount; bucket++) {
+                    Arrays.fill(minimums[code][bucket], Integer.MAX_VALUE);
+                    Arrays.fill(maximums[code][bucket], Integer.MIN_VALUE);
+                }
+            }
+        }
+
+        /**
+         * @return a copy of these buckets laid out over a wider run of buckets and more boroughs.
+         */
+        Buckets copyInto(int[] newStarts, int boroughCount) {
+            Buckets copy = new Buckets(newStarts, boroughCount);
+            int shift = Arrays.binarySearch(newStarts, starts[0]);
+            for (int code = 0; code < counts.length; code++) {
+                for (int bucket = 0; bucket < counts[code].length; bucket++) {
+                    copy.counts[code][bucket + shift] = counts[code][bucket];
+                    copy.sums[code][bucket + shift] = sums[code][bucket].clone();
+                    copy.squares[code][bucket + shift] = squares[code][bucket].clone();
+                    copy.minimums[code][bucket + shift] = minimums[code][bucket].clone();
+                    copy.maximums[code][bucket + shift] = maximums[code][bucket].clone();
+                }
+            }
+            return copy;
+        }
+
+        /**
+         * Add a row to a borough's bucket.
+         */
+        void add(int code, int bucket, int[][] columns, int row) {
+            counts[code][bucket]++;
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                int value = columns[metric][row];
+                sums[code][bucket][metric] += value;
+                squares[code][bucket][metric] += (long) value * value;
+                minimums[code][bucket][metric] = Math.min(minimums[code][bucket][metric], value);
+                maximums[code][bucket][metric] = Math.max(maximums[code][bucket][metric], value);
+            }
+        }
+
+        /**
+         * Add a borough's bucket to running totals.
+         */
+        void addTo(Totals totals, int code, int bucket) {
+            totals.count += counts[code][bucket];
+            for (int metric = 0; metric < METRIC_COUNT; metric++) {
+                totals.sums[metric] += sums[code][bucket][metric];
+                totals.squares[metric] += squares[code][bucket][metric];
+                totals.minimums[metric] = Math.min(totals.minimums[metric], minimums[code][bucket][metric]);
+                totals.maximums[metric] = Math.max(totals.maximums[metric], maximums[code][bucket][metric]);
+            }
+        }
+
+        /**
+         * @return the bucket a day falls into.
+         */
+        int bucketOf(int day) {
+            int position = Arrays.binarySearch(starts, day);
+            return position >= 0 ? position : -position - 2;
+        }
+
+        /**
+         * @return the bucket that starts on a day, or -1 if no bucket starts on it.
+         */
+        int bucketStartingOn(int day) {
+            int position = Arrays.binarySearch(starts, 0, starts.length - 1, day);
+            return position >= 0 ? position : -1;
+        }
+
+        /**
+         * @return the last day of a bucket.
+         */
+        int lastDay(int bucket) {
+            return starts[bucket + 1] - 1;
+        }
+
+        /**
+         * @return the first day after a day on which a bucket starts or the last bucket ends.
+         */
+        int nextStart(int day) {
+            return starts[bucketOf(day) + 1];
+        }
+    }
+
+    /**
+     * The exact running totals of a set of rows, turned into a MetricSummary at the end.
+     */
+    private static final class Totals {
+        long count = 0;
+        final long[] sums = new long[METRIC_COUNT];
+        final long[] squares = new long[METRIC_COUNT];
+        final int[] minimums = new int[METRIC_COUNT];
+        final int[] maximums = new int[METRIC_COUNT];
+
+        Totals() {
+            Arrays.fill(minimums, Integer.MAX_VALUE);
+            Arrays.fill(maximums, Integer.MIN_VALUE);
+        }
+    }
+}
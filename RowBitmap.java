@@ -0,0 +1,312 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable, compressed set of row numbers.
+ *
+ * The rows are kept as a bitset of 64-bit words, but only the words that have a row in
+ * them are stored, each with its position. A set of rows that are close together, such as
+ * the rows of a date range or of a value that only occurs in some months, takes a few words,
+ * and a set with few rows takes about one word per row. Sets are combined a word at a time
+ * with and() and or(), and forEach() only visits the rows that are in the set, skipping
+ * empty words without reading them.
+ */
+public class RowBitmap {
+
+    /**
+     * The set without any rows.
+     */
+    public static final RowBitmap EMPTY = new RowBitmap(new int[0], new long[0], 0);
+
+    private final int[] positions; // the position of every stored word, in ascending order
+    private final long[] words;    // the bits of every stored word, never zero
+    private final int wordCount;   // the number of stored words; the arrays may be longer
+
+    private RowBitmap(int[] positions, long[] words, int wordCount) {
+        this.positions = positions;
+        this.words = words;
+        this.wordCount = wordCount;
+    }
+
+    /**
+     * @return the set of the rows from one row up to, but not including, another.
+     */
+    public static RowBitmap range(int fromRow, int toRow) {
+        if (fromRow >= toRow) {
+            return EMPTY;
+        }
+        int first = fromRow >>> 6;
+        int last = (toRow - 1) >>> 6;
+        int[] positions = new int[last - first + 1];
+        long[] words = new long[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = first + i;
+            words[i] = -1L;
+        }
+        words[0] &= -1L << fromRow;
+        words[words.length - 1] &= -1L >>> (63 - ((toRow - 1) & 63));
+        return new RowBitmap(positions, words, positions.length);
+    }
+
+    /**
+     * @return the rows that are in every one of the sets.
+     */
+    public RowBitmap and(RowBitmap other) {
+        int[] resultPositions = new int[Math.min(wordCount, other.wordCount)];
+        long[] resultWords = new long[resultPositions.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < wordCount && j < other.wordCount) {
+            if (positions[i] < other.positions[j]) {
+                i = skipTo(positions, i + 1, wordCount, other.positions[j]);
+            }
+            else if (positions[i] > other.positions[j]) {
+                j = skipTo(other.positions, j + 1, other.wordCount, positions[i]);
+            }
+            else {
+                long word = words[i] & other.words[j];
+                if (word != 0) {
+                    resultPositions[count] = positions[i];
+                    resultWords[count++] = word;
+                }
+                i++;
+                j++;
+            }
+        }
+        return count == 0 ? EMPTY : new RowBitmap(resultPositions, resultWords, count);
+    }
+
+    /**
+     * @return the rows that are in either of the sets.
+     */
+    public RowBitmap or(RowBitmap other) {
+        int[] resultPositions = new int[wordCount + other.wordCount];
+        long[] resultWords = new long[resultPositions.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < wordCount || j < other.wordCount) {
+            if (j == other.wordCount || i < wordCount && positions[i] < other.positions[j]) {
+                resultPositions[count] = positions[i];
+                resultWords[count++] = words[i++];
+            }
+            else if (i == wordCount || positions[i] > other.positions[j]) {
+                resultPositions[count] = other.positions[j];
+                resultWords[count++] = other.words[j++];
+            }
+            else {
+                resultPositions[count] = positions[i];
+                resultWords[count++] = words[i++] | other.words[j++];
+            }
+        }
+        return new RowBitmap(resultPositions, resultWords, count);
+    }
+
+    /**
+     * Work out the rows that are in any of several sets. The words of every set are
+     * OR-ed into one uncompressed bitset covering the rows between the lowest and highest
+     * stored words, which is then compressed again, so this is quicker than calling or()
+     * for each set in turn.
+     *
+     * @param bitmaps the sets to combine.
+     * @return the rows that are in at least one of the sets.
+     */
+    public static RowBitmap union(List<RowBitmap> bitmaps) {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (RowBitmap bitmap : bitmaps) {
+            if (bitmap.wordCount > 0) {
+                first = Math.min(first, bitmap.positions[0]);
+                last = Math.max(last, bitmap.positions[bitmap.wordCount - 1]);
+            }
+        }
+        if (last < 0) {
+            return EMPTY;
+        }
+        long[] dense = new long[last - first + 1];
+        for (RowBitmap bitmap : bitmaps) {
+            for (int i = 0; i < bitmap.wordCount; i++) {
+                dense[bitmap.positions[i] - first] |= bitmap.words[i];
+            }
+        }
+        int count = 0;
+        for (long word : dense) {
+            if (word != 0) {
+                count++;
+            }
+        }
+        int[] positions = new int[count];
+        long[] words = new long[count];
+        count = 0;
+        for (int offset = 0; offset < dense.length; offset++) {
+            if (dense[offset] != 0) {
+                positions[count] = first + offset;
+                words[count++] = dense[offset];
+            }
+        }
+        return new RowBitmap(positions, words, count);
+    }
+
+    /**
+     * @return the rows of this set that pass a test. The test is only called for the rows in the set.
+     */
+    public RowBitmap filter(IntPredicate test) {
+        int[] resultPositions = new int[wordCount];
+        long[] resultWords = new long[wordCount];
+        int count = 0;
+        for (int i = 0; i < wordCount; i++) {
+            long word = words[i];
+            long kept = 0;
+            while (word != 0) {
+                long bit = word & -word;
+                if (test.test((positions[i] << 6) + Long.numberOfTrailingZeros(word))) {
+                    kept |= bit;
+                }
+                word ^= bit;
+            }
+            if (kept != 0) {
+                resultPositions[count] = positions[i];
+                resultWords[count++] = kept;
+            }
+        }
+        return count == 0 ? EMPTY : new RowBitmap(resultPositions, resultWords, count);
+    }
+
+    /**
+     * Call a consumer with every row in the set, in ascending order.
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < wordCount; i++) {
+            long word = words[i];
+            int base = positions[i] << 6;
+            while (word != 0) {
+                consumer.accept(base + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the rows in the set, in ascending order.
+     */
+    public int[] toArray() {
+        int[] rows = new int[cardinality()];
+        int count = 0;
+        for (int i = 0; i < wordCount; i++) {
+            long word = words[i];
+            int base = positions[i] << 6;
+            while (word != 0) {
+                rows[count++] = base + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return true if the set contains a row.
+     */
+    public boolean contains(int row) {
+        int i = Arrays.binarySearch(positions, 0, wordCount, row >>> 6);
+        return i >= 0 && (words[i] & (1L << row)) != 0;
+    }
+
+    /**
+     * @return the number of rows in the set.
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int i = 0; i < wordCount; i++) {
+            cardinality += Long.bitCount(words[i]);
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return true if the set has no rows.
+     */
+    public boolean isEmpty() {
+        return wordCount == 0;
+    }
+
+    /**
+     * @return the number of 64-bit words stored for the set.
+     */
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * @return the first index from start that holds a position of at least target, or end
+     * if there is none. The step doubles until it passes target, so a short set is combined
+     * with a long one without reading every word of the long one.
+     */
+    private static int skipTo(int[] positions, int start, int end, int target) {
+        int step = 1;
+        int low = start;
+        while (low + step < end && positions[low + step] < target) {
+            low += step;
+            step <<= 1;
+        }
+        int high = Math.min(end, low + step);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (positions[middle] < target) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Builds a set from rows given in ascending order.
+     */
+    public static final class Builder {
+        private int[] positions;
+        private long[] words;
+        private int wordCount;
+
+        public Builder() {
+            positions = new int[8];
+            words = new long[8];
+        }
+
+        /**
+         * Start from the rows of an existing set, so rows after them can be added.
+         */
+        Builder(RowBitmap start) {
+            positions = Arrays.copyOf(start.positions, Math.max(8, start.wordCount + 8));
+            words = Arrays.copyOf(start.words, positions.length);
+            wordCount = start.wordCount;
+        }
+
+        /**
+         * Add a row to the set. The row must not be before any row already added.
+         */
+        public void add(int row) {
+            int position = row >>> 6;
+            if (wordCount == 0 || positions[wordCount - 1] != position) {
+                if (wordCount == positions.length) {
+                    positions = Arrays.copyOf(positions, wordCount * 2);
+                    words = Arrays.copyOf(words, wordCount * 2);
+                }
+                positions[wordCount] = position;
+                words[wordCount++] = 0;
+            }
+            words[wordCount - 1] |= 1L << row;
+        }
+
+        /**
+         * @return the set of the rows added so far. The builder must not be used afterwards.
+         */
+        public RowBitmap build() {
+            return wordCount == 0 ? EMPTY : new RowBitmap(positions, words, wordCount);
+        }
+    }
+}
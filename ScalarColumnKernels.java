@@ -0,0 +1,36 @@
+/**
+ * ColumnKernels written as plain loops, used when the Vector API is not available.
+ */
+public class ScalarColumnKernels implements ColumnKernels {
+
+    @Override
+    public void aggregate(int[] days, int[] values, int from, int to, int fromDay, int toDay, long[] totals) {
+        long count = 0;
+        long sum = 0;
+        int minimum = Integer.MAX_VALUE;
+        int maximum = Integer.MIN_VALUE;
+        for (int row = from; row < to; row++) {
+            if (days[row] >= fromDay && days[row] <= toDay) {
+                int value = values[row];
+                count++;
+                sum += value;
+                minimum = Math.min(minimum, value);
+                maximum = Math.max(maximum, value);
+            }
+        }
+        add(totals, count, sum, minimum, maximum);
+    }
+
+    /**
+     * Add the results of one range to the totals.
+     */
+    static void add(long[] totals, long count, long sum, int minimum, int maximum) {
+        if (count == 0) {
+            return;
+        }
+        totals[0] += count;
+        totals[1] += sum;
+        totals[2] = Math.min(totals[2], minimum);
+        totals[3] = Math.max(totals[3], maximum);
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+/**
+ * A segment tree over a sequence of values that can grow. Each node holds the positions of
+ * the smallest and largest values below it, so a range is answered in O(log n).
+ *
+ * A tree is never changed once it has been handed out: append() copies the arrays, which
+ * takes O(n), and returns a new tree, so older snapshots of the data set can keep reading
+ * theirs. The copy is made once for all of the new values, and only the nodes above them
+ * are worked out again, rather than every node of the tree.
+ */
+public class SegmentTree implements RangeExtremes {
+
+    private final int[] values;
+    private final int size;
+    private final int leaves;     // the number of leaves, a power of two at least size
+    private final int[] minimums; // [node] -> position of the smallest value below it, or -1
+    private final int[] maximums; // [node] -> position of the largest value below it, or -1
+
+    /**
+     * @param values the values to index; the array is copied.
+     */
+    public SegmentTree(int[] values) {
+        this(Arrays.copyOf(values, Math.max(1, values.length)), values.length);
+    }
+
+    private SegmentTree(int[] values, int size) {
+        this.values = values;
+        this.size = size;
+        int capacity = 1;
+        while (capacity < values.length) {
+            capacity <<= 1;
+        }
+        leaves = capacity;
+        minimums = new int[2 * leaves];
+        maximums = new int[2 * leaves];
+        Arrays.fill(minimums, -1);
+        Arrays.fill(maximums, -1);
+        for (int i = 0; i < size; i++) {
+            minimums[leaves + i] = i;
+            maximums[leaves + i] = i;
+        }
+        for (int node = leaves - 1; node > 0; node--) {
+            update(node);
+        }
+    }
+
+    private SegmentTree(SegmentTree tree, int[] values, int size) {
+        this.values = values;
+        this.size = size;
+        leaves = tree.leaves;
+        minimums = tree.minimums.clone();
+        maximums = tree.maximums.clone();
+    }
+
+    /**
+     * @return the number of values in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Create a tree holding the values of this tree followed by some more values.
+     * This tree is not changed.
+     *
+     * @param added the array holding the values to add at the end.
+     * @param from the position in the array of the first value to add.
+     * @param to the position in the array after the last value to add.
+     * @return the new tree.
+     */
+    public SegmentTree append(int[] added, int from, int to) {
+        int count = to - from;
+        int newSize = size + count;
+        if (newSize > leaves) {
+            // out of leaves, so build a tree big enough for every value
+            int capacity = leaves;
+            while (capacity < newSize) {
+                capacity <<= 1;
+            }
+            int[] grown = Arrays.copyOf(values, capacity);
+            System.arraycopy(added, from, grown, size, count);
+            return new SegmentTree(grown, newSize);
+        }
+        int[] newValues = Arrays.copyOf(values, leaves);
+        System.arraycopy(added, from, newValues, size, count);
+        SegmentTree tree = new SegmentTree(this, newValues, newSize);
+        if (count == 0) {
+            return tree;
+        }
+        int low = leaves + size;
+        int high = leaves + newSize - 1;
+        for (int node = low; node <= high; node++) {
+            tree.minimums[node] = node - leaves;
+            tree.maximums[node] = node - leaves;
+        }
+        // the nodes that changed on each level are the parents of those on the level below
+        for (low >>= 1, high >>= 1; low > 0; low >>= 1, high >>= 1) {
+            for (int node = low; node <= high; node++) {
+                tree.update(node);
+            }
+        }
+        return tree;
+    }
+
+    @Override
+    public int argMin(int from, int to) {
+        int best = -1;
+        for (int low = from + leaves, high = Math.min(to, size) + leaves; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                best = smaller(best, minimums[low++]);
+            }
+            if ((high & 1) == 1) {
+                best = smaller(best, minimums[--high]);
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public int argMax(int from, int to) {
+        int best = -1;
+        for (int low = from + leaves, high = Math.min(to, size) + leaves; low < high; low >>= 1, high >>= 1) {
+            if ((low & 1) == 1) {
+                best = larger(best, maximums[low++]);
+            }
+            if ((high & 1) == 1) {
+                best = larger(best, maximums[--high]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Work out a node from its two children.
+     */
+    private void update(int node) {
+        minimums[node] = smaller(minimums[2 * node], minimums[2 * node + 1]);
+        maximums[node] = larger(maximums[2 * node], maximums[2 * node + 1]);
+    }
+
+    /**
+     * @return whichever position holds the smaller value, the earlier one on a tie; -1 is no position.
+     */
+    private int smaller(int first, int second) {
+        if (first < 0 || (second >= 0 && (values[second] < values[first]
+                || (values[second] == values[first] && second < first)))) {
+            return second;
+        }
+        return first;
+    }
+
+    /**
+     * @return whichever position holds the larger value, the earlier one on a tie; -1 is no position.
+     */
+    private int larger(int first, int second) {
+        if (first < 0 || (second >= 0 && (values[second] > values[first]
+                || (values[second] == values[first] && second < first)))) {
+            return second;
+        }
+        return first;
+    }
+}
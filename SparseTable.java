@@ -0,0 +1,79 @@
+/**
+ * A sparse table over a sequence of values that never changes. Level k holds, for every
+ * position, the position of the extreme value in the 2^k values starting there, so any
+ * range is covered by two overlapping blocks and answered in O(1). Building it takes
+ * O(n log n) time and space.
+ */
+public class SparseTable implements RangeExtremes {
+
+    private final int[] values;
+    private final int[][] minimums; // [level][start] -> position of the smallest value in the block
+    private final int[][] maximums; // [level][start] -> position of the largest value in the block
+
+    /**
+     * @param values the values to index; the array must not be modified afterwards.
+     */
+    public SparseTable(int[] values) {
+        this.values = values;
+        int levels = 1;
+        while ((1 << levels) <= values.length) {
+            levels++;
+        }
+        minimums = new int[levels][];
+        maximums = new int[levels][];
+        minimums[0] = new int[values.length];
+        maximums[0] = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            minimums[0][i] = i;
+            maximums[0][i] = i;
+        }
+        for (int level = 1; level < levels; level++) {
+            int half = 1 << (level - 1);
+            int count = values.length - (1 << level) + 1;
+            minimums[level] = new int[count];
+            maximums[level] = new int[count];
+            for (int i = 0; i < count; i++) {
+                minimums[level][i] = smaller(minimums[level - 1][i], minimums[level - 1][i + half]);
+                maximums[level][i] = larger(maximums[level - 1][i], maximums[level - 1][i + half]);
+            }
+        }
+    }
+
+    @Override
+    public int argMin(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int level = 31 - Integer.numberOfLeadingZeros(to - from);
+        return smaller(minimums[level][from], minimums[level][to - (1 << level)]);
+    }
+
+    @Override
+    public int argMax(int from, int to) {
+        if (from >= to) {
+            return -1;
+        }
+        int level = 31 - Integer.numberOfLeadingZeros(to - from);
+        return larger(maximums[level][from], maximums[level][to - (1 << level)]);
+    }
+
+    /**
+     * @return whichever position holds the smaller value, the earlier one on a tie.
+     */
+    private int smaller(int first, int second) {
+        if (values[second] < values[first] || (values[second] == values[first] && second < first)) {
+            return second;
+        }
+        return first;
+    }
+
+    /**
+     * @return whichever position holds the larger value, the earlier one on a tie.
+     */
+    private int larger(int first, int second) {
+        if (values[second] > values[first] || (values[second] == values[first] && second < first)) {
+            return second;
+        }
+        return first;
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.List;
 import java.time.LocalDate;
 
 /**
@@ -6,6 +7,8 @@ import java.time.LocalDate;
  * It can sort data by date, count deaths, find average cases, 
  * and check how much people move around in different areas.
  * This class works with lists of CovidData, making it easier to see what's happening with the virus.
+ * Each statistic is a CovidQuery aggregate over the list, and can also be read from a
+ * MetricSummary of the shared data set, which gathers every statistic in one pass.
  * @author Lucia Garces
  * @version 20/03/2024
  */
@@ -13,21 +16,13 @@ public class StatisticsCalculator
 {
     /**
      * This method filters a list of CovidData to include only those within a specified date range.
-     * Checks each data point to determine if its date falls between the start and end dates.
      * @param dataList the list of CovidData to filter.
      * @param startDate the start date of the range.
      * @param endDate the end date of the range.
      * @returns filtered list.
      */
-    public ArrayList<CovidData> filterDataByDate(ArrayList<CovidData> dataList, LocalDate startDate, LocalDate endDate) {
-        ArrayList<CovidData> filteredList = new ArrayList<>();
-        for (CovidData data : dataList) {
-            LocalDate dataDate = LocalDate.parse(data.getDate());
-            if ((dataDate.isAfter(startDate) || dataDate.isEqual(startDate)) && (dataDate.isBefore(endDate) || dataDate.isEqual(endDate))) {
-                filteredList.add(data);
-            }
-        }
-        return filteredList;
+    public ArrayList<CovidData> filterDataByDate(List<CovidData> dataList, LocalDate startDate, LocalDate endDate) {
+        return CovidQuery.from(dataList).between(startDate, endDate).rows();
     }
     
     /**
@@ -36,11 +31,15 @@ public class StatisticsCalculator
      */
 
     public int calcTotalDeaths(ArrayList<CovidData> dataList) {
-        int totalDeaths = 0;
-        for (CovidData data : dataList) {
-            totalDeaths += data.getTotalDeaths();
-        }
-        return totalDeaths;
+        return (int) CovidQuery.from(dataList).aggregate(Aggregate.sum(CovidMetric.TOTAL_DEATHS)).run().getValue(0);
+    }
+    
+    /**
+     * Reads the total number of COVID-19 related deaths from a summary.
+     * @returns total death count across all summarised rows.
+     */
+    public int calcTotalDeaths(MetricSummary summary) {
+        return (int) summary.getSum(CovidMetric.TOTAL_DEATHS);
     }
     
     
@@ -50,11 +49,15 @@ public class StatisticsCalculator
      */
 
     public double calcAvrgTotalCases(ArrayList<CovidData> dataList) {
-        if (dataList.isEmpty()) {
-            return 0;
-        }
-        int totalCases = dataList.stream().mapToInt(CovidData::getTotalCases).sum();
-        return(double) totalCases / dataList.size();
+        return CovidQuery.from(dataList).aggregate(Aggregate.avg(CovidMetric.TOTAL_CASES)).run().getValue(0);
+    }
+    
+    /**
+     * Reads the average of total COVID-19 cases from a summary.
+     * @returns average cases per row or 0 if nothing was summarised.
+     */
+    public double calcAvrgTotalCases(MetricSummary summary) {
+        return summary.getMean(CovidMetric.TOTAL_CASES);
     }
     
     /**
@@ -64,20 +67,17 @@ public class StatisticsCalculator
      * @return The average value of Parks GMR and Workplaces GMR across all provided CovidData points.
      */
     public double calcAverageParksAndWorkplacesGMR(ArrayList<CovidData> dataList) {
-        if (dataList.isEmpty()) {
-            return 0;
-        }
-        double totalParksGMR = 0;
-        double totalWorkplacesGMR = 0;
-        for (CovidData data : dataList) {
-            totalParksGMR += data.getParksGMR();
-            totalWorkplacesGMR += data.getWorkplacesGMR();
-        }
-        double averageParksGMR = totalParksGMR / dataList.size();
-        double averageWorkplacesGMR = totalWorkplacesGMR / dataList.size();
-        
-        // Calculate the average of the averages of Parks GMR and Workplaces GMR
-        return (averageParksGMR + averageWorkplacesGMR) / 2;
+        return averageOfAverages(CovidQuery.from(dataList), CovidMetric.PARKS_GMR, CovidMetric.WORKPLACES_GMR);
+    }
+    
+    /**
+     * Reads the average of Parks GMR and Workplaces GMR from a summary.
+     * 
+     * @param summary The summary of the rows to average.
+     * @return The average of the averages of Parks GMR and Workplaces GMR, or 0 if nothing was summarised.
+     */
+    public double calcAverageParksAndWorkplacesGMR(MetricSummary summary) {
+        return (summary.getMean(CovidMetric.PARKS_GMR) + summary.getMean(CovidMetric.WORKPLACES_GMR)) / 2;
     }
     
     /**
@@ -87,19 +87,166 @@ public class StatisticsCalculator
      * @return The average value of Residential GMR and Transit GMR across all provided CovidData points.
      */
     public double calcAverageResidentialAndTransitGMR(ArrayList<CovidData> dataList) {
-        if (dataList.isEmpty()) {
-            return 0;
+        return averageOfAverages(CovidQuery.from(dataList), CovidMetric.RESIDENTIAL_GMR, CovidMetric.TRANSIT_GMR);
+    }
+    
+    /**
+     * Reads the average of Residential GMR and Transit GMR from a summary.
+     * 
+     * @param summary The summary of the rows to average.
+     * @return The average of the averages of Residential GMR and Transit GMR, or 0 if nothing was summarised.
+     */
+    public double calcAverageResidentialAndTransitGMR(MetricSummary summary) {
+        return (summary.getMean(CovidMetric.RESIDENTIAL_GMR) + summary.getMean(CovidMetric.TRANSIT_GMR)) / 2;
+    }
+    
+    /**
+     * Sketches the distribution of new cases or a GMR column over a date range, for
+     * estimating its median and other percentiles. The sketch is merged from the data
+     * set's monthly sketches rather than sorting the rows in the range.
+     * 
+     * @param dataset The data set to read.
+     * @param metric New cases or a GMR column.
+     * @param startDate The start date of the range.
+     * @param endDate The end date of the range.
+     * @return A t-digest of the metric's values in the range.
+     */
+    public TDigest calcDistribution(CovidDataset dataset, CovidMetric metric, LocalDate startDate, LocalDate endDate) {
+        return dataset.getQuantileSketches().digest(metric, (int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+    }
+    
+    /**
+     * Calculates the rolling average of a metric for each of a borough's rows in a date range.
+     * The window of each row ends on its date, so the first rows of the range also average
+     * rows from before the range. Use new cases or new deaths for rolling case and death
+     * counts, and a GMR column for its mobility trend.
+     * 
+     * @param dataset The data set to read.
+     * @param borough The name of the borough.
+     * @param startDate The start date of the range.
+     * @param endDate The end date of the range.
+     * @param metric The metric to average.
+     * @param windowDays The length of the window in days, such as 7, 14 or 28.
+     * @return The rolling averages, in date order like CovidDataLoader.loadBoroughData,
+     * or an empty array if the borough is not in the data set.
+     */
+    public double[] calcRollingAverages(CovidDataset dataset, String borough, LocalDate startDate, LocalDate endDate,
+            CovidMetric metric, int windowDays) {
+        int boroughCode = dataset.findBoroughCode(borough);
+        if (boroughCode < 0) {
+            return new double[0];
         }
-        double totalResidentialGMR = 0;
-        double totalTransitGMR = 0;
-        for (CovidData data : dataList) {
-            totalResidentialGMR += data.getResidentialGMR();
-            totalTransitGMR += data.getTransitGMR();
+        double[] averages = dataset.getRollingAverages().averages(metric, windowDays);
+        BoroughIndex index = dataset.getBoroughIndex();
+        int[] rows = index.rows(boroughCode);
+        int start = index.start(boroughCode, (int) startDate.toEpochDay());
+        int end = Math.max(start, index.end(boroughCode, (int) endDate.toEpochDay()));
+        double[] rangeAverages = new double[end - start];
+        for (int i = start; i < end; i++) {
+            rangeAverages[i - start] = averages[rows[i]];
         }
-        double averageResidentialGMR = totalResidentialGMR / dataList.size();
-        double averageTransitGMR = totalTransitGMR / dataList.size();
-        
-        // Calculate the average of the averages of Residential GMR and Transit GMR
-        return (averageResidentialGMR + averageTransitGMR) / 2;
+        return rangeAverages;
+    }
+    
+    /**
+     * Calculates the rolling average of a metric for each of some rows, such as a borough's
+     * rows in a date range that pass a value filter. The window of each row ends on its date
+     * and covers the borough's rows in the window, including those that were filtered out.
+     * 
+     * @param dataset The data set the rows are in.
+     * @param rows The row numbers, such as those matched by a query.
+     * @param metric The metric to average.
+     * @param windowDays The length of the window in days, such as 7, 14 or 28.
+     * @return The rolling averages, in the same order as the rows.
+     */
+    public double[] calcRollingAverages(CovidDataset dataset, int[] rows, CovidMetric metric, int windowDays) {
+        double[] averages = dataset.getRollingAverages().averages(metric, windowDays);
+        double[] rowAverages = new double[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            rowAverages[i] = averages[rows[i]];
+        }
+        return rowAverages;
+    }
+    
+    /**
+     * Finds the row with the highest value of a metric in a date range, such as the peak
+     * daily new cases, using the data set's range maximum index instead of a scan.
+     * 
+     * @param dataset The data set to read.
+     * @param metric The metric to look at.
+     * @param borough The name of the borough, or null for every borough.
+     * @param startDate The start date of the range.
+     * @param endDate The end date of the range.
+     * @return The row with the highest value, the earliest if several are equal, or -1 if there are no rows.
+     */
+    public int calcPeakRow(CovidDataset dataset, CovidMetric metric, String borough, LocalDate startDate, LocalDate endDate) {
+        int boroughCode = borough == null ? -1 : dataset.findBoroughCode(borough);
+        if (borough != null && boroughCode < 0) {
+            return -1;
+        }
+        return dataset.getPeakIndex(metric).maxRow(boroughCode, (int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+    }
+    
+    /**
+     * Finds the row with the lowest value of a metric in a date range, such as the worst
+     * drop in transit mobility, using the data set's range minimum index instead of a scan.
+     * 
+     * @param dataset The data set to read.
+     * @param metric The metric to look at.
+     * @param borough The name of the borough, or null for every borough.
+     * @param startDate The start date of the range.
+     * @param endDate The end date of the range.
+     * @return The row with the lowest value, the earliest if several are equal, or -1 if there are no rows.
+     */
+    public int calcLowestRow(CovidDataset dataset, CovidMetric metric, String borough, LocalDate startDate, LocalDate endDate) {
+        int boroughCode = borough == null ? -1 : dataset.findBoroughCode(borough);
+        if (borough != null && boroughCode < 0) {
+            return -1;
+        }
+        return dataset.getPeakIndex(metric).minRow(boroughCode, (int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+    }
+    
+    /**
+     * Ranks the boroughs by a total or average over a date range and returns the first few,
+     * such as the five boroughs with the most new cases or the biggest drop in transit
+     * mobility. Each borough's value comes from the data set's cumulative sums and only
+     * the best boroughs are kept in a small heap, so no rows are read or sorted.
+     * 
+     * @param dataset The data set to read.
+     * @param aggregate The sum, average or count to rank the boroughs by.
+     * @param highest True for the boroughs with the highest values, false for the lowest.
+     * @param limit The largest number of boroughs to return.
+     * @param startDate The start date of the range.
+     * @param endDate The end date of the range.
+     * @return Up to limit boroughs with their values, best first.
+     */
+    public List<BoroughRanking.Entry> calcTopBoroughs(CovidDataset dataset, Aggregate aggregate, boolean highest,
+            int limit, LocalDate startDate, LocalDate endDate) {
+        return BoroughRanking.top(dataset, aggregate, highest, limit, (int) startDate.toEpochDay(), (int) endDate.toEpochDay());
+    }
+    
+    /**
+     * Calculates the Pearson correlations between the mobility columns, new cases and new
+     * deaths, per borough and London-wide, pairing each day with the same borough's day
+     * a number of days later. For example, a lag of 14 shows how mobility relates to the
+     * new cases two weeks on.
+     * 
+     * @param dataset The data set to read.
+     * @param startDate The start date of the range.
+     * @param endDate The end date of the range.
+     * @param lagDays The number of days the second metric of each pair is read after the first.
+     * @return The correlation matrix for the range and lag.
+     * @throws IllegalArgumentException If the lag is negative.
+     */
+    public CorrelationMatrix calcCorrelations(CovidDataset dataset, LocalDate startDate, LocalDate endDate, int lagDays) {
+        return CorrelationMatrix.compute(dataset, (int) startDate.toEpochDay(), (int) endDate.toEpochDay(), lagDays);
+    }
+    
+    /**
+     * Averages two metrics in one pass over the matching rows, then averages the two averages.
+     */
+    private double averageOfAverages(CovidQuery query, CovidMetric first, CovidMetric second) {
+        QueryResult result = query.aggregate(Aggregate.avg(first), Aggregate.avg(second)).run();
+        return (result.getValue(0) + result.getValue(1)) / 2;
     }
-}
\ No newline at end of file
+}
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.time.LocalDate;
 
 /**
@@ -83,6 +84,46 @@ public class StatisticsCalculatorTest
         
         assertEquals(-9.9, averageMobility, 0.001); 
     }
-
+    
+    @Test
+    public void testCalcTopBoroughs() {
+        CovidDataset dataset = CovidQuery.from(testCovidRecords).getDataset();
+        LocalDate startDate = LocalDate.of(2022, 6, 27);
+        LocalDate endDate = LocalDate.of(2022, 6, 30);
+        
+        List<BoroughRanking.Entry> mostCases = statisticsCalculator.calcTopBoroughs(dataset,
+            Aggregate.sum(CovidMetric.NEW_CASES), true, 2, startDate, endDate);
+        assertEquals(2, mostCases.size());
+        assertEquals("Redbridge", mostCases.get(0).getBorough());
+        assertEquals(174, mostCases.get(0).getValue(), 0.001);
+        assertEquals("Harrow", mostCases.get(1).getBorough());
+        
+        List<BoroughRanking.Entry> worstTransit = statisticsCalculator.calcTopBoroughs(dataset,
+            Aggregate.avg(CovidMetric.TRANSIT_GMR), false, 3, startDate, endDate);
+        assertEquals("Enfield", worstTransit.get(0).getBorough());
+        assertEquals("Waltham Forest", worstTransit.get(1).getBorough());
+        assertEquals("Richmond Upon Thames", worstTransit.get(2).getBorough());
+        assertEquals(-32, worstTransit.get(2).getValue(), 0.001);
+    }
+    
+    @Test
+    public void testCalcCorrelations() {
+        CovidDataset dataset = CovidQuery.from(testCovidRecords).getDataset();
+        LocalDate startDate = LocalDate.of(2022, 6, 27);
+        LocalDate endDate = LocalDate.of(2022, 6, 30);
+        
+        CorrelationMatrix sameDay = statisticsCalculator.calcCorrelations(dataset, startDate, endDate, 0);
+        assertEquals(10, sameDay.getPairCount());
+        assertEquals(1, sameDay.get(CovidMetric.NEW_CASES, CovidMetric.NEW_CASES), 0.000001);
+        assertEquals(sameDay.get(CovidMetric.PARKS_GMR, CovidMetric.TRANSIT_GMR),
+            sameDay.get(CovidMetric.TRANSIT_GMR, CovidMetric.PARKS_GMR), 0.000001);
+        
+        CorrelationMatrix nextDay = statisticsCalculator.calcCorrelations(dataset, startDate, endDate, 1);
+        assertEquals(1, nextDay.getPairCount());
+        assertEquals(1, nextDay.getPairCount("Redbridge"));
+        assertTrue(Double.isNaN(nextDay.get(CovidMetric.NEW_CASES, CovidMetric.NEW_CASES)));
+        
+        assertThrows(IllegalArgumentException.class,
+            () -> statisticsCalculator.calcCorrelations(dataset, startDate, endDate, -1));
+    }
 }
-
@@ -13,7 +13,8 @@ import javafx.scene.layout.Priority;
 
  
 import java.time.LocalDate;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 /**
  * The StatisticsWindow class is a part of a graphical user interface that presents 
  * various COVID-19 statistics to the user. It manages the display and updating of 
@@ -29,11 +30,41 @@ public class StatisticsWindow {
     private Label statisticsLabel = new Label();
     
     private StatisticsCalculator statisticsCalculator = new StatisticsCalculator();
-    private ArrayList<CovidData> filteredData;
+    private MetricSummary summary;
     private StatisticsType currentStatistic = StatisticsType.TOTAL_DEATHS;
     
+    // the data set and date range the statistics are worked out for
+    private CovidDataset dataset;
+    private LocalDate start;
+    private LocalDate end;
+    
+    // the number of boroughs shown in the rankings of the worst boroughs
+    private static final int RANKING_SIZE = 5;
+    
+    // the number of days after the mobility that the cases and deaths it is correlated with are read
+    private static final int CORRELATION_LAG_DAYS = 14;
+    
     private enum StatisticsType {
-        TOTAL_DEATHS, AVERAGE_CASES, PARK_WORKPLACE, RESIDENTIAL_TRANSIT
+        TOTAL_DEATHS, AVERAGE_CASES, PARK_WORKPLACE, RESIDENTIAL_TRANSIT, PEAK_NEW_CASES, WORST_TRANSIT,
+        MOST_CASES_BOROUGHS, MOST_DEATHS_BOROUGHS, WORST_TRANSIT_BOROUGHS, MOBILITY_CORRELATIONS,
+        NEW_CASES_PERCENTILES(CovidMetric.NEW_CASES),
+        RETAIL_RECREATION_PERCENTILES(CovidMetric.RETAIL_RECREATION_GMR),
+        GROCERY_PHARMACY_PERCENTILES(CovidMetric.GROCERY_PHARMACY_GMR),
+        PARKS_PERCENTILES(CovidMetric.PARKS_GMR),
+        TRANSIT_PERCENTILES(CovidMetric.TRANSIT_GMR),
+        WORKPLACES_PERCENTILES(CovidMetric.WORKPLACES_GMR),
+        RESIDENTIAL_PERCENTILES(CovidMetric.RESIDENTIAL_GMR);
+        
+        // the metric whose median, 90th and 99th percentiles are shown, if any
+        private final CovidMetric percentileMetric;
+        
+        StatisticsType() {
+            this(null);
+        }
+        
+        StatisticsType(CovidMetric percentileMetric) {
+            this.percentileMetric = percentileMetric;
+        }
     }
     
     /**
@@ -101,7 +132,7 @@ public class StatisticsWindow {
      * @param forward A boolean value determining the direction of cycling through statistics.
      */
     private void cycleStatistics(boolean forward) {
-        if (filteredData == null || filteredData.isEmpty()) {
+        if (summary == null || summary.getCount() == 0) {
             statisticNameLabel.setText("No data available.");
             statisticValueLabel.setText("");
             return;
@@ -112,17 +143,25 @@ public class StatisticsWindow {
     
     /**
      * Updates the displayed data based on the start and end dates provided.
-     * It loads the relevant CovidData using a data loader and filters it using the statistics calculator.
+     * It summarises the shared data set over the date range in a single pass, which tells
+     * whether there is any data and gives the statistics that are simple totals and averages.
+     * Every other statistic is only worked out when it is first shown: the percentiles come
+     * from t-digests merged from the data set's monthly sketches, the worst boroughs are ranked
+     * from the data set's cumulative sums, and the correlations between mobility and later
+     * cases and deaths are worked out in one parallel pass.
+     * Summaries and statistics are cached by the repository, so going back to an earlier date
+     * range, or back to a statistic, reuses them.
      * Then it updates the display with the new data.
      * @param startDate The start date of the date range as a String.
      * @param endDate The end date of the date range as a String.
      */
      public void updateData(String startDate, String endDate) {
         // Logic to update the statistics based on the new dates
-        LocalDate start = LocalDate.parse(startDate);
-        LocalDate end = LocalDate.parse(endDate);
-        CovidDataLoader dataLoader = new CovidDataLoader(); 
-        filteredData = statisticsCalculator.filterDataByDate(dataLoader.load(), start, end);
+        start = LocalDate.parse(startDate);
+        end = LocalDate.parse(endDate);
+        CovidQuery query = CovidDataRepository.getInstance().query().between(start, end);
+        dataset = query.getDataset();
+        summary = query.summarize();
         updateStatistics();
     }
     
@@ -131,30 +170,127 @@ public class StatisticsWindow {
      * It chooses which statistic to display and formats the data appropriately for presentation.
      */
     private void updateStatistics() {
-        if (filteredData == null || filteredData.isEmpty()) {
+        if (summary == null || summary.getCount() == 0) {
             statisticNameLabel.setText("No data available.");
             statisticValueLabel.setText("");
             return;
         }
- 
-        switch (currentStatistic) {
+        
+        StatisticsType type = currentStatistic;
+        List<Object> key = Arrays.asList("statistic", dataset.getVersion(), start, end, type);
+        statisticNameLabel.setText(describeName(type));
+        statisticValueLabel.setText(CovidDataRepository.getInstance().getQueryCache().get(key, () -> describeValue(type)));
+    }
+    
+    /**
+     * @return The name of a statistic.
+     */
+    private String describeName(StatisticsType type) {
+        switch (type) {
+            case TOTAL_DEATHS: return "Total Deaths";
+            case AVERAGE_CASES: return "Average Cases";
+            case PARK_WORKPLACE: return "Avg. Parks/Workplaces GMR";
+            case RESIDENTIAL_TRANSIT: return "Avg. Residential/Transit GMR";
+            case PEAK_NEW_CASES: return "Peak Daily New Cases";
+            case WORST_TRANSIT: return "Worst Transit GMR";
+            case MOST_CASES_BOROUGHS: return "Most New Cases";
+            case MOST_DEATHS_BOROUGHS: return "Most New Deaths";
+            case WORST_TRANSIT_BOROUGHS: return "Biggest Transit Drop (Avg. GMR)";
+            case MOBILITY_CORRELATIONS: return "Mobility vs Cases / Deaths " + CORRELATION_LAG_DAYS + " Days Later (r)";
+            default: return type.percentileMetric.getLabel() + " Median / p90 / p99";
+        }
+    }
+    
+    /**
+     * Works out a statistic over the current date range and formats it for display.
+     * Only the statistics that are simple totals or averages are read from the summary;
+     * the others read the data set's indexes, so they are worked out when first shown.
+     * @return The value of the statistic as text.
+     */
+    private String describeValue(StatisticsType type) {
+        switch (type) {
             case TOTAL_DEATHS:
-                statisticNameLabel.setText("Total Deaths");
-                statisticValueLabel.setText(String.valueOf(statisticsCalculator.calcTotalDeaths(filteredData)));
-                break;
+                return String.valueOf(statisticsCalculator.calcTotalDeaths(summary));
             case AVERAGE_CASES:
-                statisticNameLabel.setText("Average Cases");
-                statisticValueLabel.setText(String.format("%.2f", statisticsCalculator.calcAvrgTotalCases(filteredData)));
-                break;
+                return String.format("%.2f", statisticsCalculator.calcAvrgTotalCases(summary));
             case PARK_WORKPLACE:
-                statisticNameLabel.setText("Avg. Parks/Workplaces GMR");
-                statisticValueLabel.setText(String.format("%.2f", statisticsCalculator.calcAverageParksAndWorkplacesGMR(filteredData)));
-                break;
+                return String.format("%.2f", statisticsCalculator.calcAverageParksAndWorkplacesGMR(summary));
             case RESIDENTIAL_TRANSIT:
-                statisticNameLabel.setText("Avg. Residential/Transit GMR");
-                statisticValueLabel.setText(String.format("%.2f", statisticsCalculator.calcAverageResidentialAndTransitGMR(filteredData)));
-                break;
+                return String.format("%.2f", statisticsCalculator.calcAverageResidentialAndTransitGMR(summary));
+            case PEAK_NEW_CASES:
+                return describeRow(dataset, CovidMetric.NEW_CASES, statisticsCalculator.calcPeakRow(dataset, CovidMetric.NEW_CASES, null, start, end));
+            case WORST_TRANSIT:
+                return describeRow(dataset, CovidMetric.TRANSIT_GMR, statisticsCalculator.calcLowestRow(dataset, CovidMetric.TRANSIT_GMR, null, start, end));
+            case MOST_CASES_BOROUGHS:
+                return describeRanking(statisticsCalculator.calcTopBoroughs(dataset, Aggregate.sum(CovidMetric.NEW_CASES), true, RANKING_SIZE, start, end), "%.0f");
+            case MOST_DEATHS_BOROUGHS:
+                return describeRanking(statisticsCalculator.calcTopBoroughs(dataset, Aggregate.sum(CovidMetric.NEW_DEATHS), true, RANKING_SIZE, start, end), "%.0f");
+            case WORST_TRANSIT_BOROUGHS:
+                return describeRanking(statisticsCalculator.calcTopBoroughs(dataset, Aggregate.avg(CovidMetric.TRANSIT_GMR), false, RANKING_SIZE, start, end), "%.2f");
+            case MOBILITY_CORRELATIONS:
+                return describeCorrelations(statisticsCalculator.calcCorrelations(dataset, start, end, CORRELATION_LAG_DAYS));
+            default:
+                TDigest distribution = statisticsCalculator.calcDistribution(dataset, type.percentileMetric, start, end);
+                return String.format("%.1f / %.1f / %.1f", distribution.quantile(0.5),
+                    distribution.quantile(0.9), distribution.quantile(0.99));
         }
     }
+    
+    /**
+     * Describes the value of a metric in a row along with where and when it was.
+     * @return The value, borough and date of the row, or an empty string if there is no row.
+     */
+    private String describeRow(CovidDataset dataset, CovidMetric metric, int row) {
+        if (row < 0) {
+            return "";
+        }
+        return dataset.getValue(metric, row) + " (" + dataset.getBorough(row) + ", " + dataset.getDate(row) + ")";
+    }
+    
+    /**
+     * Describes a ranking of boroughs as one numbered line per borough.
+     * @param ranking The boroughs and their values, best first.
+     * @param valueFormat The format of the values, such as "%.0f".
+     * @return The numbered lines, or an empty string if no borough has any rows.
+     */
+    private String describeRanking(List<BoroughRanking.Entry> ranking, String valueFormat) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < ranking.size(); i++) {
+            if (i > 0) {
+                description.append('\n');
+            }
+            description.append(i + 1).append(". ").append(ranking.get(i).getBorough()).append(" (")
+                .append(String.format(valueFormat, ranking.get(i).getValue())).append(')');
+        }
+        return description.toString();
+    }
+    
+    /**
+     * Describes the London-wide correlation of each mobility column with the later new cases
+     * and new deaths, one line per mobility column.
+     * @param correlations The correlation matrix to read.
+     * @return The lines of correlations, with "n/a" where a metric did not vary.
+     */
+    private String describeCorrelations(CorrelationMatrix correlations) {
+        StringBuilder description = new StringBuilder();
+        for (CovidMetric metric : CorrelationMatrix.METRICS) {
+            if (!metric.isGMR()) {
+                continue;
+            }
+            if (description.length() > 0) {
+                description.append('\n');
+            }
+            description.append(metric.getLabel()).append(": ")
+                .append(formatCorrelation(correlations.get(metric, CovidMetric.NEW_CASES))).append(" / ")
+                .append(formatCorrelation(correlations.get(metric, CovidMetric.NEW_DEATHS)));
+        }
+        return description.toString();
+    }
+    
+    /**
+     * @return A correlation with two decimal places, or "n/a" if it could not be worked out.
+     */
+    private String formatCorrelation(double correlation) {
+        return Double.isNaN(correlation) ? "n/a" : String.format("%.2f", correlation);
+    }
 }
- 
\ No newline at end of file
@@ -0,0 +1,243 @@
+import java.util.Arrays;
+
+/**
+ * A t-digest: a small, mergeable sketch of a distribution that estimates quantiles such as
+ * the median or the 99th percentile without keeping every value.
+ *
+ * Values are clustered into centroids (a mean and a weight). Centroids near the middle of
+ * the distribution may hold many values, while centroids near the tails hold only a few,
+ * so extreme quantiles stay accurate. The number of centroids never grows past about the
+ * compression factor, however many values are added, and two digests can be merged into
+ * one that describes all of their values. A digest of only a few values is exact.
+ *
+ * This is the merging variant described by Dunning and Ertl, using the k1 scale function.
+ */
+public class TDigest {
+
+    private static final double DEFAULT_COMPRESSION = 100;
+    // How many values are buffered, as a multiple of the compression, before they are merged in
+    private static final int BUFFER_FACTOR = 5;
+    // The arrays start small and grow, as most digests only ever hold a month of one borough
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final double compression;
+
+    // The centroids, sorted by mean
+    private double[] means;
+    private double[] weights;
+    private int centroidCount = 0;
+
+    // Values that have been added but not yet merged into the centroids
+    private final int bufferLimit;
+    private double[] bufferMeans;
+    private double[] bufferWeights;
+    private int bufferCount = 0;
+
+    private double totalWeight = 0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compression how many centroids the digest may keep; higher is more accurate.
+     */
+    public TDigest(double compression) {
+        this.compression = compression;
+        bufferLimit = (int) Math.ceil(compression) * BUFFER_FACTOR;
+        means = new double[INITIAL_CAPACITY];
+        weights = new double[INITIAL_CAPACITY];
+        bufferMeans = new double[INITIAL_CAPACITY];
+        bufferWeights = new double[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Add a value to the digest.
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Add a value that occurs a number of times to the digest.
+     */
+    public void add(double value, double weight) {
+        if (bufferCount == bufferMeans.length) {
+            if (bufferCount < bufferLimit) {
+                bufferMeans = Arrays.copyOf(bufferMeans, Math.min(bufferCount * 2, bufferLimit));
+                bufferWeights = Arrays.copyOf(bufferWeights, bufferMeans.length);
+            }
+            else {
+                compress();
+            }
+        }
+        bufferMeans[bufferCount] = value;
+        bufferWeights[bufferCount] = weight;
+        bufferCount++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Add every value described by another digest to this one. The other digest is not changed.
+     */
+    public void add(TDigest other) {
+        // the other digest's buffered values are read as they are rather than merged first,
+        // so digests that are shared between threads can be added without locking
+        for (int i = 0; i < other.centroidCount; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        for (int i = 0; i < other.bufferCount; i++) {
+            add(other.bufferMeans[i], other.bufferWeights[i]);
+        }
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * @return the number of values added to the digest.
+     */
+    public double size() {
+        return totalWeight;
+    }
+
+    /**
+     * @return the number of centroids kept by the digest.
+     */
+    public int centroidCount() {
+        compress();
+        return centroidCount;
+    }
+
+    /**
+     * Estimate a quantile of the values added to the digest.
+     *
+     * @param q the quantile, between 0 and 1; 0.5 is the median.
+     * @return the estimated value at that quantile, or NaN if the digest is empty.
+     */
+    public double quantile(double q) {
+        compress();
+        if (centroidCount == 0) {
+            return Double.NaN;
+        }
+        if (centroidCount == 1) {
+            return means[0];
+        }
+        double index = Math.max(0, Math.min(1, q)) * totalWeight;
+
+        // the first and last centroid are interpolated towards the exact min and max
+        if (index < weights[0] / 2) {
+            return min + (means[0] - min) * index / (weights[0] / 2);
+        }
+        int last = centroidCount - 1;
+        if (index > totalWeight - weights[last] / 2) {
+            double tail = totalWeight - index;
+            return max - (max - means[last]) * tail / (weights[last] / 2);
+        }
+
+        // otherwise interpolate between the centres of the two centroids around the index
+        double centre = weights[0] / 2;
+        for (int i = 0; i < last; i++) {
+            double gap = (weights[i] + weights[i + 1]) / 2;
+            if (index <= centre + gap) {
+                return means[i] + (means[i + 1] - means[i]) * (index - centre) / gap;
+            }
+            centre += gap;
+        }
+        return means[last];
+    }
+
+    /**
+     * Merge the buffered values into the centroids. Digests that are built once and then
+     * only read, or added to other digests, should be compressed when they are complete.
+     */
+    void compress() {
+        if (bufferCount == 0) {
+            return;
+        }
+        int length = centroidCount + bufferCount;
+        double[] allMeans = Arrays.copyOf(means, length);
+        double[] allWeights = Arrays.copyOf(weights, length);
+        System.arraycopy(bufferMeans, 0, allMeans, centroidCount, bufferCount);
+        System.arraycopy(bufferWeights, 0, allWeights, centroidCount, bufferCount);
+        bufferCount = 0;
+        sort(allMeans, allWeights, length);
+
+        // sweep from the lowest mean, merging neighbours while they stay under the size limit
+        int count = 0;
+        double weightSoFar = 0;
+        double mean = allMeans[0];
+        double weight = allWeights[0];
+        double limit = quantileOfScale(scaleOfQuantile(0) + 1);
+        for (int i = 1; i < length; i++) {
+            double proposed = weight + allWeights[i];
+            if ((weightSoFar + proposed) / totalWeight <= limit) {
+                mean += (allMeans[i] - mean) * allWeights[i] / proposed;
+                weight = proposed;
+            }
+            else {
+                count = emit(count, mean, weight);
+                weightSoFar += weight;
+                limit = quantileOfScale(scaleOfQuantile(weightSoFar / totalWeight) + 1);
+                mean = allMeans[i];
+                weight = allWeights[i];
+            }
+        }
+        centroidCount = emit(count, mean, weight);
+    }
+
+    /**
+     * Store a centroid at a position, growing the arrays if needed.
+     *
+     * @return the number of centroids stored.
+     */
+    private int emit(int position, double mean, double weight) {
+        if (position == means.length) {
+            means = Arrays.copyOf(means, position * 2);
+            weights = Arrays.copyOf(weights, position * 2);
+        }
+        means[position] = mean;
+        weights[position] = weight;
+        return position + 1;
+    }
+
+    /**
+     * @return the k1 scale function: centroids may span at most one unit of it.
+     */
+    private double scaleOfQuantile(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * q - 1);
+    }
+
+    /**
+     * @return the inverse of the scale function.
+     */
+    private double quantileOfScale(double k) {
+        if (k >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+
+    /**
+     * Sort the first length keys, moving the values with them.
+     */
+    private static void sort(double[] keys, double[] values, int length) {
+        for (int gap = length / 2; gap > 0; gap /= 2) {
+            for (int i = gap; i < length; i++) {
+                double key = keys[i];
+                double value = values[i];
+                int j = i;
+                while (j >= gap && keys[j - gap] > key) {
+                    keys[j] = keys[j - gap];
+                    values[j] = values[j - gap];
+                    j -= gap;
+                }
+                keys[j] = key;
+                values[j] = value;
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * ColumnKernels written with the incubating Vector API, so each step compares and adds
+ * up as many rows as fit in a SIMD register. The day test becomes a lane mask, and the
+ * selected values are widened to longs before they are added, so the sum is exact.
+ *
+ * This class is kept out of the default build, in the vector directory, as compiling and
+ * running it needs --add-modules jdk.incubator.vector. Without it ColumnKernels.getInstance()
+ * falls back to ScalarColumnKernels.
+ */
+public class VectorColumnKernels implements ColumnKernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void aggregate(int[] days, int[] values, int from, int to, int fromDay, int toDay, long[] totals) {
+        IntVector zero = IntVector.zero(SPECIES);
+        LongVector sums = LongVector.zero(LongVector.SPECIES_PREFERRED);
+        IntVector minimums = IntVector.broadcast(SPECIES, Integer.MAX_VALUE);
+        IntVector maximums = IntVector.broadcast(SPECIES, Integer.MIN_VALUE);
+        long count = 0;
+
+        int row = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; row < bound; row += SPECIES.length()) {
+            IntVector dayVector = IntVector.fromArray(SPECIES, days, row);
+            VectorMask<Integer> inRange = dayVector.compare(VectorOperators.GE, fromDay)
+                .and(dayVector.compare(VectorOperators.LE, toDay));
+            IntVector selected = zero.blend(IntVector.fromArray(SPECIES, values, row), inRange);
+            count += inRange.trueCount();
+            sums = sums.add((LongVector) selected.convert(VectorOperators.I2L, 0))
+                .add((LongVector) selected.convert(VectorOperators.I2L, 1));
+            minimums = minimums.lanewise(VectorOperators.MIN, selected, inRange);
+            maximums = maximums.lanewise(VectorOperators.MAX, selected, inRange);
+        }
+
+        long sum = sums.reduceLanes(VectorOperators.ADD);
+        int minimum = minimums.reduceLanes(VectorOperators.MIN);
+        int maximum = maximums.reduceLanes(VectorOperators.MAX);
+        for (; row < to; row++) {
+            if (days[row] >= fromDay && days[row] <= toDay) {
+                int value = values[row];
+                count++;
+                sum += value;
+                minimum = Math.min(minimum, value);
+                maximum = Math.max(maximum, value);
+            }
+        }
+        ScalarColumnKernels.add(totals, count, sum, minimum, maximum);
+    }
+}